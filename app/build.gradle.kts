@@ -33,9 +33,13 @@ android {
 
 dependencies {
 
+    implementation(project(":engine"))
     implementation("com.google.mlkit:face-detection:16.1.5")
     implementation(libs.appcompat)
     implementation(libs.material)
+    implementation(libs.lifecycle.viewmodel)
+    implementation(libs.lifecycle.livedata)
+    implementation(libs.work.runtime)
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
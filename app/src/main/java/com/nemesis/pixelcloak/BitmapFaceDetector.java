@@ -0,0 +1,39 @@
+package com.nemesis.pixelcloak;
+
+import android.graphics.Bitmap;
+
+import com.nemesis.pixelcloak.engine.FaceBoxDetector;
+
+import java.util.List;
+
+/**
+ * A {@link FaceBoxDetector} that also takes a bitmap, for detectors such as ML Kit's that
+ * work on bitmaps anyway and would otherwise copy the pixels back out of an ARGB array.
+ */
+interface BitmapFaceDetector extends FaceBoxDetector {
+    /** As {@link #detect(int[], int, int, int)}, on {@code bitmap}'s pixels. */
+    List<int[]> detect(Bitmap bitmap, int rotation) throws Exception;
+
+    /** Adapts a detector that only takes ARGB arrays by copying each bitmap's pixels out. */
+    static BitmapFaceDetector copying(FaceBoxDetector faces) {
+        return new BitmapFaceDetector() {
+            @Override
+            public List<int[]> detect(int[] argb, int w, int h, int rotation) throws Exception {
+                return faces.detect(argb, w, h, rotation);
+            }
+
+            @Override
+            public List<int[]> detect(Bitmap bitmap, int rotation) throws Exception {
+                int w = bitmap.getWidth(), h = bitmap.getHeight();
+                int[] argb = new int[w * h];
+                bitmap.getPixels(argb, 0, w, 0, 0, w, h);
+                return faces.detect(argb, w, h, rotation);
+            }
+
+            @Override
+            public void close() {
+                faces.close();
+            }
+        };
+    }
+}
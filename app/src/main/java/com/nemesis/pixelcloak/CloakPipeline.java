@@ -0,0 +1,807 @@
+package com.nemesis.pixelcloak;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.nemesis.pixelcloak.engine.CloakEngine;
+import com.nemesis.pixelcloak.engine.DetectionScheduler;
+import com.nemesis.pixelcloak.engine.ExifOrientation;
+import com.nemesis.pixelcloak.engine.FaceBoxDetector;
+import com.nemesis.pixelcloak.engine.FileNames;
+import com.nemesis.pixelcloak.engine.ImagePlane;
+import com.nemesis.pixelcloak.engine.MetadataStripper;
+import com.nemesis.pixelcloak.engine.Orientation;
+import com.nemesis.pixelcloak.engine.PipelineMetrics;
+import com.nemesis.pixelcloak.engine.PlaneAllocator;
+import com.nemesis.pixelcloak.engine.PreviewFrame;
+import com.nemesis.pixelcloak.engine.ResourceGovernor;
+import com.nemesis.pixelcloak.engine.SearchListener;
+import com.nemesis.pixelcloak.engine.Stage;
+import com.nemesis.pixelcloak.engine.StageScope;
+import com.nemesis.pixelcloak.engine.XxHash64;
+import com.nemesis.pixelcloak.engine.jpeg.DctCloakEngine;
+import com.nemesis.pixelcloak.engine.jpeg.JpegCoefficientReader;
+import com.nemesis.pixelcloak.engine.jpeg.JpegCoefficientWriter;
+import com.nemesis.pixelcloak.engine.jpeg.JpegCoefficients;
+import com.nemesis.pixelcloak.engine.jpeg.UnsupportedJpegException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Everything between a source URI and a saved gallery entry, independent of any Activity.
+ * One instance per process. {@link #prepare} may run on a prefetch thread; everything else
+ * is expected from a single worker thread at a time.
+ */
+final class CloakPipeline {
+    private static final String TAG = "CloakPipeline";
+
+    /** Long side of the whole-frame face pass and of each high-resolution face tile. */
+    private static final int FACE_DETECT_DIM = 1024;
+    /** How long face tiles may keep running after the whole-frame pass. */
+    private static final long FACE_TILE_BUDGET_MS = 2000;
+
+    static final class Outcome {
+        final Uri output;
+        final String filename;
+        final String summary;
+
+        Outcome(Uri output, String filename, String summary) {
+            this.output = output;
+            this.filename = filename;
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * A claimed job with its source already opened, fingerprinted and decoded at processing
+     * resolution. {@link #bitmap} is null for strip-only jobs, for jobs whose result is
+     * already in the gallery ({@link #reuse}) and when {@link #error} is set.
+     */
+    static final class Prepared {
+        final JobJournal.Entry entry;
+        final int rotation;
+        final int width, height;
+        final Bitmap bitmap;
+        final Exception error;
+        final long hash;
+        /** What the {@link ContentIndex} already knew about the source, or null. */
+        final ContentIndex.Record known;
+        /** Whether {@link #known}'s output can stand in for this job's result. */
+        final boolean reuse;
+
+        Prepared(JobJournal.Entry entry, int rotation, int width, int height, Bitmap bitmap, Exception error) {
+            this(entry, rotation, width, height, bitmap, error, 0, null, false);
+        }
+
+        Prepared(JobJournal.Entry entry, int rotation, int width, int height, Bitmap bitmap, Exception error,
+                 long hash, ContentIndex.Record known, boolean reuse) {
+            this.entry = entry;
+            this.rotation = rotation;
+            this.width = width;
+            this.height = height;
+            this.bitmap = bitmap;
+            this.error = error;
+            this.hash = hash;
+            this.known = known;
+            this.reuse = reuse;
+        }
+    }
+
+    /**
+     * The best candidate so far of a running pixel-engine job, upright for the job's
+     * rotation and before faces are censored.
+     */
+    static final class Candidate {
+        final long jobId;
+        final int rotation;
+        final Bitmap preview;
+        final int iteration;
+        final double ssim;
+
+        Candidate(long jobId, int rotation, Bitmap preview, int iteration, double ssim) {
+            this.jobId = jobId;
+            this.rotation = rotation;
+            this.preview = preview;
+            this.iteration = iteration;
+            this.ssim = ssim;
+        }
+    }
+
+    private static CloakPipeline instance;
+
+    private final Context context;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final PixelBridge pixelBridge = new PixelBridge();
+    private final MetadataStripper metadataStripper = new MetadataStripper();
+    private final AtomicBoolean isCancelled = new AtomicBoolean(false);
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final CloakEngine engine = new CloakEngine(secureRandom, isCancelled, metrics);
+    private final DctCloakEngine dctEngine = new DctCloakEngine(secureRandom, isCancelled, metrics);
+    private final DetectionScheduler faceScheduler = new DetectionScheduler(FACE_DETECT_DIM, FACE_DETECT_DIM, 0.25,
+            FACE_TILE_BUDGET_MS, Math.min(4, Runtime.getRuntime().availableProcessors()), isCancelled, metrics);
+    private final MutableLiveData<Candidate> candidates = new MutableLiveData<>();
+    private final ContentIndex index;
+    private BitmapFaceDetector faceDetector;
+
+    static synchronized CloakPipeline get(Context context) {
+        if (instance == null) instance = new CloakPipeline(context.getApplicationContext());
+        return instance;
+    }
+
+    private CloakPipeline(Context context) {
+        this.context = context;
+        this.index = ContentIndex.get(context);
+        metrics.addListener(new TraceMetricsListener());
+    }
+
+    PipelineMetrics metrics() {
+        return metrics;
+    }
+
+    /** Wipes working planes a killed worker left behind; only call with no job running. */
+    void wipeStaleScratch() {
+        PlaneAllocator.wipeStale(scratchDir());
+    }
+
+    /**
+     * Replaces the face detector, ML Kit unless set, e.g. with a stand-in for benchmarks.
+     * The previous detector is closed, so only call this with no job running.
+     */
+    synchronized void useFaceDetector(FaceBoxDetector detector) {
+        if (faceDetector != null) faceDetector.close();
+        faceDetector = BitmapFaceDetector.copying(detector);
+    }
+
+    private synchronized BitmapFaceDetector faceDetector() {
+        if (faceDetector == null) faceDetector = new MlKitFaceDetector();
+        return faceDetector;
+    }
+
+    AtomicBoolean cancelled() {
+        return isCancelled;
+    }
+
+    LiveData<Candidate> candidates() {
+        return candidates;
+    }
+
+    /**
+     * Opens a claimed job's source and decodes it straight to processing resolution, reading
+     * only as many source pixels as that needs. Never throws; failures are carried in the
+     * result so the caller can record them against the entry. Safe to call from a prefetch
+     * thread while another job is being cloaked.
+     */
+    Prepared prepare(JobJournal.Entry entry) {
+        try {
+            int rotation = entry.rotation == JobJournal.SOURCE_ROTATION ? exifRotation(entry.source) : entry.rotation;
+            if (entry.mode == JobJournal.Mode.STRIP) return new Prepared(entry, rotation, 0, 0, null, null);
+
+            long hash;
+            try (StageScope s = metrics.begin(Stage.HASH);
+                 InputStream in = context.getContentResolver().openInputStream(entry.source)) {
+                if (in == null) throw new IOException("Couldn't open source image");
+                XxHash64 h = new XxHash64();
+                h.update(in);
+                hash = h.digest();
+                s.addBytes(h.length());
+            }
+            ContentIndex.Record known = index.find(hash);
+            if (known != null && canReuse(entry, known)) {
+                return new Prepared(entry, rotation, 0, 0, null, null, hash, known, true);
+            }
+
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            try (InputStream in = context.getContentResolver().openInputStream(entry.source)) {
+                if (in == null) throw new IOException("Couldn't open source image");
+                BitmapFactory.decodeStream(in, null, bounds);
+            }
+            int w = bounds.outWidth, h = bounds.outHeight;
+            if (w <= 0 || h <= 0) throw new IOException("Unsupported image format");
+
+            int maxDim = deviceGovernor(true).chooseProcessDim(w, h, (long) w * h * 4);
+            Bitmap sampled;
+            try (StageScope s = metrics.begin(Stage.LOAD)) {
+                BitmapFactory.Options opts = new BitmapFactory.Options();
+                opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                opts.inMutable = true;
+                opts.inSampleSize = sampleSizeFor(Math.max(w, h), maxDim);
+                try (InputStream in = context.getContentResolver().openInputStream(entry.source)) {
+                    if (in == null) throw new IOException("Couldn't open source image");
+                    sampled = BitmapFactory.decodeStream(in, null, opts);
+                }
+                if (sampled == null) throw new IOException("Failed to decode image");
+                s.addBytes(sampled.getAllocationByteCount());
+            }
+            Bitmap small;
+            try (StageScope s = metrics.begin(Stage.DOWNSCALE)) {
+                small = downscaleForProcessing(sampled, maxDim);
+                if (small != sampled) {
+                    sampled.recycle();
+                    s.addBytes(small.getAllocationByteCount());
+                }
+            }
+            return new Prepared(entry, rotation, w, h, small, null, hash, known, false);
+        } catch (Exception e) {
+            return new Prepared(entry, 0, 0, 0, null, e);
+        } catch (OutOfMemoryError oom) {
+            return new Prepared(entry, 0, 0, 0, null, new IOException("ran out of memory", oom));
+        }
+    }
+
+    /**
+     * Cloaks a prepared job, viewed rotated clockwise by its rotation, and saves the result
+     * to the gallery at the source's full resolution. Returns null if cancelled.
+     */
+    Outcome cloak(Prepared job) throws Exception {
+        final JobJournal.Entry entry = job.entry;
+        final int rotation = job.rotation;
+
+        if (job.reuse) return new Outcome(job.known.output, job.known.filename, "already cloaked");
+
+        if (entry.useDct && !entry.useEmoji && isJpeg(entry.source)) {
+            Outcome o = cloakJpegCoefficients(entry.source, job, rotation);
+            if (o != null || isCancelled.get()) return o;
+        }
+
+        final boolean swap = Orientation.swapsAxes(rotation);
+        final int outW = swap ? job.height : job.width;
+        final int outH = swap ? job.width : job.height;
+        final Bitmap small = job.bitmap;
+
+        List<int[]> faces = knownFaces(job, rotation);
+        if (faces == null) faces = detectFaceBoxes(job, rotation);
+        if (isCancelled.get()) return null;
+
+        double strength = 0.6;
+        double patchDensity = 0.06;
+        int blockSize = 8;
+        double targetSsim = 0.95;
+        int maxIters = 6;
+
+        final int w = swap ? small.getHeight() : small.getWidth();
+        final int h = swap ? small.getWidth() : small.getHeight();
+        final int candidateDim = Math.max(128, screenDim() / 2);
+        SearchListener listener = new SearchListener() {
+            @Override
+            public int previewMaxDim() {
+                return candidateDim;
+            }
+
+            @Override
+            public void onBestCandidate(PreviewFrame frame, int iteration, double score) {
+                Bitmap b = Bitmap.createBitmap(frame.argb, frame.w, frame.h, Bitmap.Config.ARGB_8888);
+                candidates.postValue(new Candidate(entry.id, rotation, b, iteration, score));
+            }
+        };
+
+        PlaneAllocator planes = planeAllocator(w, h);
+        CloakEngine.Result r;
+        Bitmap perturbed;
+        try (ImagePlane orig = planes.allocate(w, h, 3);
+             ImagePlane best = planes.allocate(w, h, 3)) {
+            pixelBridge.toPlane(small, rotation, orig);
+            r = engine.perturb(orig, best, planes,
+                    strength, targetSsim, maxIters, patchDensity, blockSize, listener);
+            if (isCancelled.get()) return null;
+            perturbed = PixelBridge.obtainMutable(small, null, w, h);
+            pixelBridge.writePlane(best, perturbed);
+        }
+
+        List<int[]> boxes = new ArrayList<>(faces.size());
+        for (int[] f : faces) {
+            int[] upright = Orientation.rotateBox(f, job.width, job.height, rotation);
+            boxes.add(scaleBox(upright, (double) w / outW, (double) h / outH));
+        }
+        Bitmap censored = entry.useEmoji
+                ? censorFacesWithEmoji(perturbed, boxes, entry.emoji)
+                : censorFacesWithBlack(perturbed, boxes);
+        // Censoring always covers every face; a cancel that arrived meanwhile still must not save.
+        if (isCancelled.get()) return null;
+
+        Bitmap out;
+        if (censored.getWidth() != outW || censored.getHeight() != outH) {
+            try (StageScope s = metrics.begin(Stage.UPSCALE)) {
+                out = Bitmap.createScaledBitmap(censored, outW, outH, true);
+                s.addBytes(out.getAllocationByteCount());
+            }
+        } else {
+            out = censored;
+        }
+
+        String filename = generateRandomNumericFilename();
+        XxHash64 written = new XxHash64();
+        Uri saved = saveBitmapToGallery(out, filename, written);
+        if (saved == null) throw new IOException("Failed to save image");
+        remember(job, saved, filename, r.scale, r.ssim, faces, written);
+        return new Outcome(saved, filename, String.format(Locale.US, "SSIM=%.4f", r.ssim));
+    }
+
+    Outcome strip(Uri source, int rotation) throws IOException {
+        Uri uri = null;
+        try (StageScope s = metrics.begin(Stage.STRIP);
+             ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(source, "r")) {
+            if (pfd == null) throw new IOException("Couldn't open source image");
+            try (FileInputStream fis = new FileInputStream(pfd.getFileDescriptor());
+                 FileChannel in = fis.getChannel()) {
+                byte[] head = new byte[12];
+                int n = in.read(ByteBuffer.wrap(head));
+                in.position(0);
+                MetadataStripper.Format format = MetadataStripper.detect(head, Math.max(0, n));
+                if (format == null) throw new IOException("Strip-only mode supports JPEG, PNG and WebP");
+
+                String filename = FileNames.randomNumeric(secureRandom, format.extension);
+                uri = createGalleryEntry(filename, format.mimeType);
+                if (uri == null) throw new IOException("Couldn't create MediaStore entry");
+                try (OutputStream out = context.getContentResolver().openOutputStream(uri)) {
+                    if (out == null) throw new IOException("OutputStream is null");
+                    int orientation = rotation == JobJournal.SOURCE_ROTATION
+                            ? MetadataStripper.KEEP_SOURCE_ORIENTATION : rotation;
+                    MetadataStripper.Result r = metadataStripper.strip(in, Channels.newChannel(out), orientation);
+                    s.addBytes(r.bytesOut);
+                }
+                return new Outcome(uri, filename, "metadata removed");
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (uri != null) try { context.getContentResolver().delete(uri, null, null); } catch (Exception ignore) {}
+            throw ex;
+        }
+    }
+
+    /**
+     * Decodes {@code uri} for display only, no larger than the screen's long side. Big photos
+     * would otherwise cost a full-size bitmap on the UI side and can exceed the GPU's maximum
+     * texture size.
+     */
+    Bitmap decodePreview(Uri uri) throws IOException {
+        int maxDim = screenDim();
+        Bitmap sampled;
+        try (StageScope s = metrics.begin(Stage.LOAD)) {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                if (in == null) throw new IOException("Couldn't open image");
+                BitmapFactory.decodeStream(in, null, bounds);
+            }
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) throw new IOException("Unsupported image format");
+
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            opts.inSampleSize = sampleSizeFor(Math.max(bounds.outWidth, bounds.outHeight), maxDim);
+            try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                if (in == null) throw new IOException("Couldn't open image");
+                sampled = BitmapFactory.decodeStream(in, null, opts);
+            }
+            if (sampled == null) throw new IOException("Loaded bitmap is null");
+            s.addBytes(sampled.getAllocationByteCount());
+        }
+        try (StageScope s = metrics.begin(Stage.DOWNSCALE)) {
+            Bitmap b = downscaleForProcessing(sampled, maxDim);
+            if (b != sampled) {
+                sampled.recycle();
+                s.addBytes(b.getAllocationByteCount());
+            }
+            return b;
+        }
+    }
+
+    int exifRotation(Uri uri) {
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in == null) return 0;
+            ExifInterface exif = new ExifInterface(in);
+
+            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90: return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180: return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270: return 270;
+                default: return 0;
+            }
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private boolean isJpeg(Uri uri) {
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in == null) return false;
+            byte[] head = new byte[3];
+            int n = 0;
+            while (n < head.length) {
+                int r = in.read(head, n, head.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            return MetadataStripper.detect(head, n) == MetadataStripper.Format.JPEG;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A batch skips files that are themselves cloak outputs; any job skips a source already
+     * cloaked with the same options, as long as that output is still there.
+     */
+    private boolean canReuse(JobJournal.Entry entry, ContentIndex.Record known) {
+        if (known.output == null) return false;
+        boolean batch = entry.rotation == JobJournal.SOURCE_ROTATION;
+        if (!(known.options == entry.optionsKey() || (known.isOutput && batch))) return false;
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(known.output, "r")) {
+            return pfd != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Records a finished job under its source's hash and the hash of the file just written. */
+    private void remember(Prepared job, Uri saved, String filename, double scale, double score,
+                          List<int[]> faces, XxHash64 written) {
+        index.put(new ContentIndex.Record(job.hash, job.entry.optionsKey(), false, saved, filename,
+                (float) scale, (float) score, faces, job.rotation));
+        index.put(new ContentIndex.Record(written.digest(), 0, true, saved, filename,
+                (float) scale, (float) score, null, 0));
+    }
+
+    /**
+     * Faces already found in the job's source, or null if they must be detected. Detection
+     * runs on the upright view, so boxes found at another rotation are not reused.
+     */
+    private static List<int[]> knownFaces(Prepared job, int rotation) {
+        ContentIndex.Record known = job.known;
+        if (known == null || known.faces == null || known.faceRotation != rotation) return null;
+        return known.faces;
+    }
+
+    private String generateRandomNumericFilename() {
+        return FileNames.randomNumeric(secureRandom, "jpg");
+    }
+
+    private int screenDim() {
+        DisplayMetrics dm = context.getResources().getDisplayMetrics();
+        return Math.max(dm.widthPixels, dm.heightPixels);
+    }
+
+    private ResourceGovernor deviceGovernor(boolean withScratch) {
+        Runtime rt = Runtime.getRuntime();
+        long limit = rt.maxMemory();
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null) {
+            boolean largeHeap = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+            int memoryClassMb = largeHeap ? am.getLargeMemoryClass() : am.getMemoryClass();
+            limit = Math.min(limit, memoryClassMb * 1024L * 1024L);
+        }
+        long scratch = withScratch ? scratchDir().getUsableSpace() : 0;
+        return new ResourceGovernor(limit, rt.totalMemory() - rt.freeMemory(), scratch);
+    }
+
+    private File scratchDir() {
+        File dir = new File(context.getCacheDir(), "planes");
+        if (!dir.isDirectory() && !dir.mkdirs()) Log.w(TAG, "Couldn't create " + dir);
+        return dir;
+    }
+
+    /**
+     * Working planes stay on the heap while half of what is free covers them, and go to
+     * memory-mapped scratch files in the cache dir beyond that. Direct memory is skipped:
+     * it is native heap the low-memory killer counts, while mapped pages can be written
+     * back and dropped under pressure.
+     */
+    private PlaneAllocator planeAllocator(int w, int h) {
+        long heap = deviceGovernor(false).availableBytes() - ResourceGovernor.offHeapWorkingSetBytes(w, h);
+        return new PlaneAllocator(heap / 2, 0, scratchDir());
+    }
+
+    /** Largest power-of-two subsampling that still leaves at least {@code target} pixels on the long side. */
+    static int sampleSizeFor(int longSide, int target) {
+        int sample = 1;
+        while (longSide / (sample * 2) >= target) sample *= 2;
+        return sample;
+    }
+
+    static Bitmap downscaleForProcessing(Bitmap src, int maxDim) {
+        int w = src.getWidth(), h = src.getHeight();
+        int max = Math.max(w, h);
+        if (max <= maxDim) return src;
+        double scale = (double) maxDim / (double) max;
+        int nw = (int) Math.max(1, Math.round(w * scale));
+        int nh = (int) Math.max(1, Math.round(h * scale));
+        return Bitmap.createScaledBitmap(src, nw, nh, true);
+    }
+
+    /**
+     * Cloaks a JPEG on its DCT coefficients at full resolution and saves it with the current
+     * orientation as its EXIF tag. Returns null, having saved nothing, when the file needs
+     * the pixel engine instead or the run was cancelled.
+     */
+    private Outcome cloakJpegCoefficients(Uri jpeg, Prepared job, int rotation) throws Exception {
+        // Coefficients are held at full resolution, so a large photo may not fit where the
+        // downscaled pixel path would.
+        if (!deviceGovernor(false).admits(DctCloakEngine.estimatePeakBytes(job.width, job.height))) {
+            Log.i(TAG, "Using the pixel engine: coefficients for " + job.width + "x" + job.height + " don't fit");
+            return null;
+        }
+        JpegCoefficients coefficients;
+        try (StageScope s = metrics.begin(Stage.LOAD);
+             InputStream in = context.getContentResolver().openInputStream(jpeg)) {
+            if (in == null) return null;
+            coefficients = JpegCoefficientReader.read(new BufferedInputStream(in, 64 * 1024));
+            s.addBytes(coefficients.coefficientBytes());
+        } catch (UnsupportedJpegException e) {
+            Log.i(TAG, "Using the pixel engine: " + e.getMessage());
+            return null;
+        }
+        if (coefficients.width != job.width || coefficients.height != job.height) return null;
+
+        double strength = 0.6;
+        double targetPsnr = 38.0;
+        int maxIters = 6;
+        int jpegQuality = 60;
+
+        List<int[]> faces = knownFaces(job, rotation);
+        if (faces == null) faces = detectFaceBoxes(job, rotation);
+        DctCloakEngine.Result r = dctEngine.strongPerturbCoefficients(coefficients,
+                strength, targetPsnr, maxIters, jpegQuality);
+        coefficients = null;
+        if (isCancelled.get()) return null;
+
+        try (StageScope s = metrics.begin(Stage.CENSOR)) {
+            for (int[] b : faces) DctCloakEngine.blackOut(r.coefficients, b[0], b[1], b[2], b[3]);
+        }
+        if (isCancelled.get()) return null;
+
+        String filename = generateRandomNumericFilename();
+        XxHash64 written = new XxHash64();
+        Uri saved = saveCoefficientsToGallery(r.coefficients, filename, rotation, written);
+        if (saved == null) throw new IOException("Failed to save image");
+        remember(job, saved, filename, r.scale, r.psnr, faces, written);
+        return new Outcome(saved, filename, String.format(Locale.US, "PSNR=%.1f dB", r.psnr));
+    }
+
+    /**
+     * Finds the faces in the job's source, in high-resolution tiles where the whole frame
+     * isn't enough (see {@link DetectionScheduler}), and returns padded {left, top, right,
+     * bottom} boxes in the source's stored full-resolution coordinates.
+     */
+    private List<int[]> detectFaceBoxes(Prepared job, int rotation) throws Exception {
+        final boolean swap = Orientation.swapsAxes(rotation);
+        final int uprightW = swap ? job.height : job.width;
+        final int uprightH = swap ? job.width : job.height;
+
+        List<int[]> found;
+        try (SourceRegionDetector regions = new SourceRegionDetector(context.getContentResolver(),
+                job.entry.source, job.bitmap, job.width, job.height, rotation, faceDetector())) {
+            found = faceScheduler.detect(uprightW, uprightH, regions);
+        }
+
+        List<int[]> boxes = new ArrayList<>(found.size());
+        for (int[] box : found) {
+            int padW = (int) ((box[2] - box[0]) * 0.12f);
+            int padH = (int) ((box[3] - box[1]) * 0.12f);
+            int[] upright = {
+                    Math.max(0, box[0] - padW),
+                    Math.max(0, box[1] - padH),
+                    Math.min(uprightW, box[2] + padW),
+                    Math.min(uprightH, box[3] + padH)
+            };
+            if (upright[2] - upright[0] <= 4 || upright[3] - upright[1] <= 4) continue;
+            boxes.add(Orientation.unrotateBox(upright, job.width, job.height, rotation));
+        }
+        return boxes;
+    }
+
+    /** Scales a box outward, so a face shrunk to a few pixels still gets at least one. */
+    private static int[] scaleBox(int[] box, double sx, double sy) {
+        return new int[]{
+                (int) Math.floor(box[0] * sx),
+                (int) Math.floor(box[1] * sy),
+                (int) Math.ceil(box[2] * sx),
+                (int) Math.ceil(box[3] * sy)
+        };
+    }
+
+    /** Paints each of {@code boxes}, already padded and in {@code src}'s coordinates, black. */
+    private Bitmap censorFacesWithBlack(Bitmap src, List<int[]> boxes) {
+        if (boxes.isEmpty()) return src;
+
+        try (StageScope censor = metrics.begin(Stage.CENSOR)) {
+            Bitmap mutable = src.isMutable() ? src : src.copy(Bitmap.Config.ARGB_8888, true);
+            if (mutable != src) censor.addBytes(mutable.getAllocationByteCount());
+            Canvas canvas = new Canvas(mutable);
+            Paint blackPaint = new Paint();
+            blackPaint.setStyle(Paint.Style.FILL);
+            blackPaint.setColor(Color.BLACK);
+            blackPaint.setAntiAlias(true);
+
+            for (int[] b : boxes) {
+                Rect safe = clampedRect(b, src);
+                if (safe.isEmpty()) continue;
+                canvas.drawRect(safe, blackPaint);
+            }
+            return mutable;
+        }
+    }
+
+    /** Covers each of {@code boxes}, already padded and in {@code src}'s coordinates, with {@code emoji}. */
+    private Bitmap censorFacesWithEmoji(Bitmap src, List<int[]> boxes, String emoji) {
+        if (boxes.isEmpty()) return src;
+
+        try (StageScope censor = metrics.begin(Stage.CENSOR)) {
+            Bitmap mutable = src.isMutable() ? src : src.copy(Bitmap.Config.ARGB_8888, true);
+            if (mutable != src) censor.addBytes(mutable.getAllocationByteCount());
+            Canvas canvas = new Canvas(mutable);
+
+            for (int[] b : boxes) {
+                Rect safe = clampedRect(b, src);
+                if (safe.isEmpty()) continue;
+
+                Bitmap emojiBmp = renderEmoji(emoji, safe.width(), safe.height());
+                censor.addBytes(emojiBmp.getAllocationByteCount());
+
+                canvas.drawBitmap(emojiBmp, null, safe, null);
+            }
+            return mutable;
+        }
+    }
+
+    private static Rect clampedRect(int[] b, Bitmap bmp) {
+        return new Rect(
+                Math.max(0, b[0]),
+                Math.max(0, b[1]),
+                Math.min(bmp.getWidth(), b[2]),
+                Math.min(bmp.getHeight(), b[3]));
+    }
+
+    private Bitmap renderEmoji(String emoji, int width, int height) {
+        Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bmp);
+
+        Paint paint = new Paint();
+        paint.setTextSize(height * 0.8f);
+        paint.setAntiAlias(true);
+        paint.setTextAlign(Paint.Align.CENTER);
+
+        Paint.FontMetrics fm = paint.getFontMetrics();
+        float x = width / 2f;
+        float y = (height - fm.ascent - fm.descent) / 2f;
+
+        canvas.drawText(emoji, x, y, paint);
+        return bmp;
+    }
+
+    private Uri createGalleryEntry(String filename, String mimeType) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, filename);
+        values.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            values.put(MediaStore.Images.Media.RELATIVE_PATH, "Pictures/PixelCloak");
+        }
+        return context.getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+    }
+
+    private Uri saveCoefficientsToGallery(JpegCoefficients coefficients, String filename, int rotation,
+                                          XxHash64 written) {
+        ContentResolver resolver = context.getContentResolver();
+        Uri uri = null;
+        try (StageScope save = metrics.begin(Stage.SAVE)) {
+            uri = createGalleryEntry(filename, "image/jpeg");
+            if (uri == null) {
+                Log.e(TAG, "Couldn't create MediaStore entry");
+                return null;
+            }
+
+            try (OutputStream out = resolver.openOutputStream(uri)) {
+                if (out == null) {
+                    Log.e(TAG, "OutputStream is null");
+                    resolver.delete(uri, null, null);
+                    return null;
+                }
+                try (StageScope s = metrics.begin(Stage.ENCODE)) {
+                    JpegCoefficientWriter.write(coefficients, new HashingOutputStream(out, written),
+                            ExifOrientation.valueForDegrees(rotation));
+                }
+            }
+            return uri;
+
+        } catch (Exception ex) {
+            Log.e(TAG, "Unexpected error saving image", ex);
+            if (uri != null) try { resolver.delete(uri, null, null); } catch (Exception ignore) {}
+            return null;
+        }
+    }
+
+    private Uri saveBitmapToGallery(Bitmap bmp, String filename, XxHash64 written) {
+        ContentResolver resolver = context.getContentResolver();
+        Uri uri = null;
+        try (StageScope save = metrics.begin(Stage.SAVE)) {
+            uri = createGalleryEntry(filename, "image/jpeg");
+            if (uri == null) {
+                Log.e(TAG, "Couldn't create MediaStore entry");
+                return null;
+            }
+
+            try (OutputStream out = resolver.openOutputStream(uri)) {
+                if (out == null) {
+                    Log.e(TAG, "OutputStream is null");
+                    resolver.delete(uri, null, null);
+                    return null;
+                }
+                boolean compressed;
+                try (StageScope s = metrics.begin(Stage.ENCODE)) {
+                    compressed = bmp.compress(Bitmap.CompressFormat.JPEG, 90, new HashingOutputStream(out, written));
+                }
+                if (!compressed) {
+                    Log.e(TAG, "Bitmap.compress returned false");
+                    resolver.delete(uri, null, null);
+                    return null;
+                }
+            }
+
+            return uri;
+
+        } catch (SecurityException se) {
+            Log.e(TAG, "SecurityException saving image", se);
+            if (uri != null) try { resolver.delete(uri, null, null); } catch (Exception ignore) {}
+            return null;
+        } catch (Exception ex) {
+            Log.e(TAG, "Unexpected error saving image", ex);
+            if (uri != null) try { resolver.delete(uri, null, null); } catch (Exception ignore) {}
+            return null;
+        }
+    }
+
+    /** Fingerprints an output while it is written, so it is recognised if it is shared back in. */
+    private static final class HashingOutputStream extends FilterOutputStream {
+        private final XxHash64 digest;
+
+        HashingOutputStream(OutputStream out, XxHash64 digest) {
+            super(out);
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            digest.update(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            digest.update(b, off, len);
+        }
+    }
+}
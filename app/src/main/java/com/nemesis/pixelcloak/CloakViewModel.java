@@ -0,0 +1,148 @@
+package com.nemesis.pixelcloak;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+
+import com.nemesis.pixelcloak.engine.Orientation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Holds what the screen shows across configuration changes: the current image, its
+ * orientation, the chosen options and the job whose result should replace the preview.
+ */
+public final class CloakViewModel extends AndroidViewModel {
+    private static final String TAG = "CloakViewModel";
+
+    /** Screen-sized copy of the current image; processing always re-reads {@link #currentUri}. */
+    Bitmap lastBitmap;
+    /** The file {@link #lastBitmap} was decoded from; the next cloak runs on it. */
+    Uri currentUri;
+    /** The file the user picked; strip-only always works on the original. */
+    Uri loadedUri;
+    int userRotation = 0;
+
+    boolean useEmojiMode = false;
+    String selectedEmoji = "😶";
+    boolean useDctEngine = false;
+
+    long awaitingId = -1;
+    boolean wasBusy = false;
+
+    final LiveData<List<WorkInfo>> work;
+    final LiveData<JobJournal.Entry> finished;
+    final LiveData<CloakPipeline.Candidate> candidates;
+    /** Set whenever {@link #lastBitmap} changes and the preview should follow. */
+    final MutableLiveData<Bitmap> shown = new MutableLiveData<>();
+    /** One-shot user message; the observer clears it after showing it. */
+    final MutableLiveData<String> message = new MutableLiveData<>();
+
+    private final JobJournal journal;
+    private final CloakPipeline pipeline;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final Handler main = new Handler(Looper.getMainLooper());
+
+    public CloakViewModel(@NonNull Application app) {
+        super(app);
+        journal = JobJournal.get(app);
+        pipeline = CloakPipeline.get(app);
+        work = WorkManager.getInstance(app).getWorkInfosForUniqueWorkLiveData(CloakWorker.UNIQUE_NAME);
+        finished = journal.lastFinished();
+        candidates = pipeline.candidates();
+    }
+
+    void submitCloak() {
+        awaitingId = journal.enqueue(JobJournal.Mode.CLOAK, Collections.singletonList(currentUri),
+                userRotation, useEmojiMode, selectedEmoji, useDctEngine);
+        CloakWorker.enqueue(getApplication());
+    }
+
+    void submitStrip() {
+        awaitingId = journal.enqueue(JobJournal.Mode.STRIP, Collections.singletonList(loadedUri),
+                userRotation, false, null, false);
+        CloakWorker.enqueue(getApplication());
+    }
+
+    /** Queues every source with its own EXIF orientation; results go to the gallery only. */
+    void submitBatch(List<Uri> sources) {
+        journal.enqueue(JobJournal.Mode.CLOAK, sources, JobJournal.SOURCE_ROTATION,
+                useEmojiMode, selectedEmoji, useDctEngine);
+        CloakWorker.enqueue(getApplication());
+    }
+
+    /** The awaited job once it has finished, clearing the wait; null while it is still queued. */
+    JobJournal.Entry takeAwaitedResult() {
+        if (awaitingId < 0) return null;
+        JobJournal.Entry e = journal.entry(awaitingId);
+        if (e == null) {
+            awaitingId = -1;
+            return null;
+        }
+        if (e.state != JobJournal.State.DONE && e.state != JobJournal.State.FAILED) return null;
+        awaitingId = -1;
+        return e;
+    }
+
+    int[] progress() {
+        return journal.progress();
+    }
+
+    /** Decodes a picked image off the main thread and makes it the current one. */
+    void load(Uri uri) {
+        loader.execute(() -> {
+            try {
+                Bitmap b = pipeline.decodePreview(uri);
+                int rotation = pipeline.exifRotation(uri);
+                main.post(() -> {
+                    lastBitmap = b;
+                    loadedUri = uri;
+                    currentUri = uri;
+                    userRotation = rotation;
+                    shown.setValue(b);
+                });
+            } catch (Exception | OutOfMemoryError e) {
+                Log.e(TAG, "Failed to load image", e);
+                message.postValue("Failed to load image");
+            }
+        });
+    }
+
+    /** Replaces the current image with a finished job's output, keeping the user's rotation. */
+    void showResult(JobJournal.Entry e) {
+        loader.execute(() -> {
+            try {
+                Bitmap b = pipeline.decodePreview(e.output);
+                int stored = pipeline.exifRotation(e.output);
+                main.post(() -> {
+                    lastBitmap = b;
+                    currentUri = e.output;
+                    userRotation = Orientation.normalize(userRotation - e.rotation + stored);
+                    shown.setValue(b);
+                    message.setValue("Obfuscation done, saved to gallery: " + e.detail);
+                });
+            } catch (Exception | OutOfMemoryError ex) {
+                Log.e(TAG, "Failed to load result", ex);
+                message.postValue("Saved to gallery: " + e.detail);
+            }
+        });
+    }
+
+    @Override
+    protected void onCleared() {
+        loader.shutdownNow();
+    }
+}
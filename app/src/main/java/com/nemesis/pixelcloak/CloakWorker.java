@@ -0,0 +1,87 @@
+package com.nemesis.pixelcloak;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * Drains the {@link JobJournal} one entry at a time through an {@link IntakeQueue}, so the
+ * next source is decoding while the current one is cloaked. Entries appended while it runs
+ * are picked up by the same worker; anything left after a stop is resumed by the next one.
+ */
+public final class CloakWorker extends Worker {
+    private static final String TAG = "CloakWorker";
+
+    static final String UNIQUE_NAME = "pixelcloak-jobs";
+    static final String KEY_DONE = "done";
+    static final String KEY_TOTAL = "total";
+
+    public CloakWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /** Schedules a drain after any worker already queued or running. */
+    static void enqueue(Context context) {
+        WorkManager.getInstance(context).enqueueUniqueWork(UNIQUE_NAME,
+                ExistingWorkPolicy.APPEND_OR_REPLACE,
+                new OneTimeWorkRequest.Builder(CloakWorker.class).build());
+    }
+
+    /** Restarts draining after the app comes back, unless a worker is already scheduled. */
+    static void resumeIfPending(Context context) {
+        if (!JobJournal.get(context).hasUnfinished()) return;
+        WorkManager.getInstance(context).enqueueUniqueWork(UNIQUE_NAME,
+                ExistingWorkPolicy.KEEP,
+                new OneTimeWorkRequest.Builder(CloakWorker.class).build());
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        CloakPipeline pipeline = CloakPipeline.get(getApplicationContext());
+        JobJournal journal = JobJournal.get(getApplicationContext());
+        pipeline.cancelled().set(false);
+        pipeline.wipeStaleScratch();
+
+        try (IntakeQueue intake = new IntakeQueue(pipeline, journal)) {
+            CloakPipeline.Prepared job;
+            while (!isStopped() && (job = intake.take()) != null) {
+                JobJournal.Entry e = job.entry;
+                try {
+                    if (job.error != null) throw job.error;
+                    CloakPipeline.Outcome o = e.mode == JobJournal.Mode.STRIP
+                            ? pipeline.strip(e.source, job.rotation)
+                            : pipeline.cloak(job);
+                    if (o == null) {
+                        journal.release(e.id);
+                        break;
+                    }
+                    journal.complete(e.id, o.output, o.filename + " (" + o.summary + ")");
+                } catch (OutOfMemoryError oom) {
+                    Log.e(TAG, "OOM during job " + e.id, oom);
+                    journal.fail(e.id, "ran out of memory");
+                } catch (Exception ex) {
+                    Log.e(TAG, "Job " + e.id + " failed", ex);
+                    journal.fail(e.id, ex.getMessage());
+                }
+                int[] p = journal.progress();
+                setProgressAsync(new Data.Builder().putInt(KEY_DONE, p[0]).putInt(KEY_TOTAL, p[1]).build());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return Result.success();
+    }
+
+    @Override
+    public void onStopped() {
+        CloakPipeline.get(getApplicationContext()).cancelled().set(true);
+    }
+}
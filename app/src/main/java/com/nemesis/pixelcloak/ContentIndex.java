@@ -0,0 +1,226 @@
+package com.nemesis.pixelcloak;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the app already knows about a file, keyed by the xxHash64 of its bytes: the output
+ * it was cloaked to and with which options, the search's final scale and score, and the
+ * faces found in it. Lives in a fixed-size memory-mapped table, so it never grows past
+ * {@link #CAPACITY} records; the least recently used one is overwritten when it is full.
+ */
+final class ContentIndex {
+    private static final String TAG = "ContentIndex";
+    private static final String FILE_NAME = "content.index";
+
+    private static final int MAGIC = 0x50434958;
+    private static final int VERSION = 3;
+    static final int CAPACITY = 1024;
+    static final int MAX_FACES = 8;
+
+    private static final int HEADER = 16;
+    private static final int SLOT = 512;
+    private static final int OFF_HASH = 0;
+    private static final int OFF_USED = 8;
+    private static final int OFF_OPTIONS = 16;
+    private static final int OFF_FLAGS = 20;
+    private static final int OFF_FACES_N = 21;
+    private static final int OFF_URI_LEN = 22;
+    private static final int OFF_SCALE = 24;
+    private static final int OFF_SCORE = 28;
+    private static final int OFF_FACES = 32;
+    private static final int OFF_FACE_ROTATION = OFF_FACES + MAX_FACES * 16;
+    private static final int OFF_URI = OFF_FACE_ROTATION + 4;
+    private static final int OFF_NAME = 480;
+    private static final int MAX_URI = OFF_NAME - OFF_URI;
+    private static final int MAX_NAME = SLOT - OFF_NAME - 1;
+
+    private static final int FLAG_OUTPUT = 1;
+    private static final int FLAG_FACES = 2;
+
+    static final class Record {
+        final long hash;
+        /** {@link JobJournal} options the output was made with; 0 for a file that is itself an output. */
+        final int options;
+        final boolean isOutput;
+        final Uri output;
+        final String filename;
+        final float scale;
+        final float score;
+        /** Padded {left, top, right, bottom} boxes in stored full-resolution pixels, or null if unknown. */
+        final List<int[]> faces;
+        /** Clockwise rotation the image was viewed at when {@link #faces} were detected. */
+        final int faceRotation;
+
+        Record(long hash, int options, boolean isOutput, Uri output, String filename,
+               float scale, float score, List<int[]> faces, int faceRotation) {
+            this.hash = hash;
+            this.options = options;
+            this.isOutput = isOutput;
+            this.output = output;
+            this.filename = filename;
+            this.scale = scale;
+            this.score = score;
+            this.faces = faces;
+            this.faceRotation = faceRotation;
+        }
+    }
+
+    private static ContentIndex instance;
+
+    private final MappedByteBuffer map;
+    private long clock;
+
+    static synchronized ContentIndex get(Context context) {
+        if (instance == null) instance = new ContentIndex(context.getApplicationContext());
+        return instance;
+    }
+
+    private ContentIndex(Context context) {
+        MappedByteBuffer m = null;
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(HEADER + (long) CAPACITY * SLOT);
+            m = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        } catch (IOException e) {
+            Log.e(TAG, "Content index unavailable", e);
+        }
+        map = m;
+        if (map == null) return;
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+            for (int i = 0; i < map.capacity(); i += 8) map.putLong(i, 0L);
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+        }
+        clock = map.getLong(8);
+    }
+
+    /** Hash values are never 0, which marks an empty slot. */
+    static long key(long hash) {
+        return hash == 0 ? 1 : hash;
+    }
+
+    /** The record for {@code hash}, marking it most recently used, or null. */
+    synchronized Record find(long hash) {
+        int slot = slotOf(key(hash));
+        if (slot < 0) return null;
+        touch(slot);
+        return read(slot);
+    }
+
+    synchronized void put(Record r) {
+        if (map == null) return;
+        long hash = key(r.hash);
+        int slot = slotOf(hash);
+        if (slot < 0) slot = victim();
+        int base = HEADER + slot * SLOT;
+        for (int i = 0; i < SLOT; i += 8) map.putLong(base + i, 0L);
+
+        map.putLong(base + OFF_HASH, hash);
+        map.putInt(base + OFF_OPTIONS, r.options);
+        // A face list that doesn't fit is stored as unknown rather than cut short.
+        boolean faces = r.faces != null && r.faces.size() <= MAX_FACES;
+        int flags = (r.isOutput ? FLAG_OUTPUT : 0) | (faces ? FLAG_FACES : 0);
+        map.put(base + OFF_FLAGS, (byte) flags);
+        map.putFloat(base + OFF_SCALE, r.scale);
+        map.putFloat(base + OFF_SCORE, r.score);
+
+        int n = faces ? r.faces.size() : 0;
+        map.put(base + OFF_FACES_N, (byte) n);
+        map.putShort(base + OFF_FACE_ROTATION, (short) r.faceRotation);
+        for (int i = 0; i < n; i++) {
+            int[] b = r.faces.get(i);
+            for (int k = 0; k < 4; k++) map.putInt(base + OFF_FACES + i * 16 + k * 4, b[k]);
+        }
+
+        byte[] uri = r.output == null ? new byte[0] : r.output.toString().getBytes(StandardCharsets.UTF_8);
+        if (uri.length > MAX_URI) uri = new byte[0];
+        map.putShort(base + OFF_URI_LEN, (short) uri.length);
+        putBytes(base + OFF_URI, uri);
+
+        byte[] name = r.filename == null ? new byte[0] : r.filename.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME) name = new byte[0];
+        map.put(base + OFF_NAME, (byte) name.length);
+        putBytes(base + OFF_NAME + 1, name);
+
+        touch(slot);
+        map.force();
+    }
+
+    private int slotOf(long hash) {
+        if (map == null) return -1;
+        for (int s = 0; s < CAPACITY; s++) {
+            if (map.getLong(HEADER + s * SLOT + OFF_HASH) == hash) return s;
+        }
+        return -1;
+    }
+
+    /** An empty slot if there is one, otherwise the least recently used. */
+    private int victim() {
+        int oldest = 0;
+        long oldestUse = Long.MAX_VALUE;
+        for (int s = 0; s < CAPACITY; s++) {
+            int base = HEADER + s * SLOT;
+            if (map.getLong(base + OFF_HASH) == 0L) return s;
+            long used = map.getLong(base + OFF_USED);
+            if (used < oldestUse) {
+                oldestUse = used;
+                oldest = s;
+            }
+        }
+        return oldest;
+    }
+
+    private void touch(int slot) {
+        map.putLong(HEADER + slot * SLOT + OFF_USED, ++clock);
+        map.putLong(8, clock);
+    }
+
+    private Record read(int slot) {
+        int base = HEADER + slot * SLOT;
+        int flags = map.get(base + OFF_FLAGS);
+        List<int[]> faces = null;
+        if ((flags & FLAG_FACES) != 0) {
+            int n = Math.min(MAX_FACES, map.get(base + OFF_FACES_N));
+            faces = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int[] b = new int[4];
+                for (int k = 0; k < 4; k++) b[k] = map.getInt(base + OFF_FACES + i * 16 + k * 4);
+                faces.add(b);
+            }
+        }
+        int uriLen = Math.min(MAX_URI, map.getShort(base + OFF_URI_LEN));
+        String uri = uriLen > 0 ? new String(getBytes(base + OFF_URI, uriLen), StandardCharsets.UTF_8) : null;
+        int nameLen = Math.min(MAX_NAME, map.get(base + OFF_NAME) & 0xFF);
+        String name = nameLen > 0 ? new String(getBytes(base + OFF_NAME + 1, nameLen), StandardCharsets.UTF_8) : null;
+        return new Record(map.getLong(base + OFF_HASH), map.getInt(base + OFF_OPTIONS),
+                (flags & FLAG_OUTPUT) != 0, uri != null ? Uri.parse(uri) : null, name,
+                map.getFloat(base + OFF_SCALE), map.getFloat(base + OFF_SCORE), faces,
+                map.getShort(base + OFF_FACE_ROTATION));
+    }
+
+    private void putBytes(int at, byte[] b) {
+        ByteBuffer dup = map.duplicate();
+        dup.position(at);
+        dup.put(b);
+    }
+
+    private byte[] getBytes(int at, int len) {
+        byte[] b = new byte[len];
+        ByteBuffer dup = map.duplicate();
+        dup.position(at);
+        dup.get(b);
+        return b;
+    }
+}
@@ -0,0 +1,65 @@
+package com.nemesis.pixelcloak;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claims journal entries and decodes them on a background thread just ahead of the worker.
+ * At most {@link #PREFETCH} prepared jobs wait in the queue, so a batch of hundreds of
+ * shared images never holds more than a few decoded bitmaps at once.
+ */
+final class IntakeQueue implements AutoCloseable {
+    private static final int PREFETCH = 2;
+    private static final long POLL_MILLIS = 100;
+
+    private final CloakPipeline pipeline;
+    private final JobJournal journal;
+    private final BlockingQueue<CloakPipeline.Prepared> ready = new ArrayBlockingQueue<>(PREFETCH);
+    private final Thread producer;
+    private volatile boolean closed;
+
+    IntakeQueue(CloakPipeline pipeline, JobJournal journal) {
+        this.pipeline = pipeline;
+        this.journal = journal;
+        this.producer = new Thread(this::fill, "pixelcloak-intake");
+        producer.start();
+    }
+
+    /** The next prepared job, or null once the journal has been drained. */
+    CloakPipeline.Prepared take() throws InterruptedException {
+        while (true) {
+            CloakPipeline.Prepared p = ready.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (p != null) return p;
+            if (!producer.isAlive()) return ready.poll();
+        }
+    }
+
+    /** Stops prefetching and hands every claimed but unprocessed entry back to the journal. */
+    @Override
+    public void close() {
+        closed = true;
+        producer.interrupt();
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CloakPipeline.Prepared p;
+        while ((p = ready.poll()) != null) journal.release(p.entry.id);
+    }
+
+    private void fill() {
+        while (!closed) {
+            JobJournal.Entry e = journal.claimNext();
+            if (e == null) return;
+            CloakPipeline.Prepared p = pipeline.prepare(e);
+            try {
+                ready.put(p);
+            } catch (InterruptedException ie) {
+                journal.release(e.id);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.nemesis.pixelcloak;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Small persistent record of queued jobs, one line per source URI. Every state change is
+ * written through an {@link AtomicFile}, so a batch interrupted by process death resumes
+ * at the first entry that had not finished.
+ */
+final class JobJournal {
+    private static final String TAG = "JobJournal";
+    private static final String FILE_NAME = "jobs.journal";
+
+    /** Rotation value meaning "whatever the source's own EXIF orientation says". */
+    static final int SOURCE_ROTATION = -1;
+
+    enum Mode { CLOAK, STRIP }
+
+    enum State { PENDING, RUNNING, DONE, FAILED }
+
+    static final class Entry {
+        final long id;
+        final Mode mode;
+        final Uri source;
+        final int rotation;
+        final boolean useEmoji;
+        final String emoji;
+        final boolean useDct;
+        volatile State state;
+        volatile Uri output;
+        volatile String detail;
+
+        Entry(long id, Mode mode, Uri source, int rotation, boolean useEmoji, String emoji, boolean useDct) {
+            this.id = id;
+            this.mode = mode;
+            this.source = source;
+            this.rotation = rotation;
+            this.useEmoji = useEmoji;
+            this.emoji = emoji;
+            this.useDct = useDct;
+            this.state = State.PENDING;
+        }
+
+        /** Identifies everything that shapes a cloak's output besides the source; never 0. */
+        int optionsKey() {
+            int k = Objects.hash(mode.ordinal(), rotation, useEmoji, useEmoji ? emoji : null, useDct);
+            return k == 0 ? 1 : k;
+        }
+    }
+
+    private static JobJournal instance;
+
+    private final AtomicFile file;
+    private final List<Entry> entries = new ArrayList<>();
+    private final MutableLiveData<Entry> lastFinished = new MutableLiveData<>();
+    private long nextId = 1;
+
+    static synchronized JobJournal get(Context context) {
+        if (instance == null) instance = new JobJournal(context.getApplicationContext());
+        return instance;
+    }
+
+    private JobJournal(Context context) {
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        load();
+    }
+
+    /**
+     * Queues one job per source. A new batch replaces finished entries from the previous
+     * one; jobs still pending are kept ahead of it. Returns the id of the first new entry.
+     */
+    synchronized long enqueue(Mode mode, List<Uri> sources, int rotation,
+                              boolean useEmoji, String emoji, boolean useDct) {
+        if (!hasUnfinished()) entries.clear();
+        long first = nextId;
+        for (Uri source : sources) {
+            entries.add(new Entry(nextId++, mode, source, rotation, useEmoji, emoji, useDct));
+        }
+        save();
+        return first;
+    }
+
+    /** Marks the oldest pending entry as running and returns it, or null when drained. */
+    synchronized Entry claimNext() {
+        for (Entry e : entries) {
+            if (e.state == State.PENDING) {
+                e.state = State.RUNNING;
+                save();
+                return e;
+            }
+        }
+        return null;
+    }
+
+    synchronized void release(long id) {
+        Entry e = find(id);
+        if (e == null) return;
+        e.state = State.PENDING;
+        save();
+    }
+
+    synchronized void complete(long id, Uri output, String detail) {
+        finish(id, State.DONE, output, detail);
+    }
+
+    synchronized void fail(long id, String detail) {
+        finish(id, State.FAILED, null, detail);
+    }
+
+    synchronized Entry entry(long id) {
+        return find(id);
+    }
+
+    synchronized boolean hasUnfinished() {
+        for (Entry e : entries) {
+            if (e.state == State.PENDING || e.state == State.RUNNING) return true;
+        }
+        return false;
+    }
+
+    /** {finished, total} for the current batch. */
+    synchronized int[] progress() {
+        int finished = 0;
+        for (Entry e : entries) {
+            if (e.state == State.DONE || e.state == State.FAILED) finished++;
+        }
+        return new int[]{finished, entries.size()};
+    }
+
+    LiveData<Entry> lastFinished() {
+        return lastFinished;
+    }
+
+    private void finish(long id, State state, Uri output, String detail) {
+        Entry e = find(id);
+        if (e == null) return;
+        e.state = state;
+        e.output = output;
+        e.detail = detail;
+        save();
+        lastFinished.postValue(e);
+    }
+
+    private Entry find(long id) {
+        for (Entry e : entries) if (e.id == id) return e;
+        return null;
+    }
+
+    private void load() {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(file.openRead(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Entry e = parse(line);
+                if (e == null) continue;
+                // A RUNNING entry means the process died mid-job; it has to run again.
+                if (e.state == State.RUNNING) e.state = State.PENDING;
+                entries.add(e);
+                nextId = Math.max(nextId, e.id + 1);
+            }
+        } catch (FileNotFoundException e) {
+            // First run.
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read job journal", e);
+        }
+    }
+
+    private void save() {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            StringBuilder sb = new StringBuilder();
+            for (Entry e : entries) {
+                sb.append(e.id).append('\t')
+                        .append(e.mode.name()).append('\t')
+                        .append(e.state.name()).append('\t')
+                        .append(e.rotation).append('\t')
+                        .append(e.useEmoji ? 1 : 0).append('\t')
+                        .append(e.useDct ? 1 : 0).append('\t')
+                        .append(encode(e.emoji)).append('\t')
+                        .append(e.source).append('\t')
+                        .append(e.output != null ? e.output.toString() : "-").append('\t')
+                        .append(encode(e.detail)).append('\n');
+            }
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write job journal", e);
+            if (out != null) file.failWrite(out);
+        }
+    }
+
+    private static Entry parse(String line) {
+        String[] f = line.split("\t", -1);
+        if (f.length != 10) return null;
+        try {
+            Entry e = new Entry(Long.parseLong(f[0]), Mode.valueOf(f[1]), Uri.parse(f[7]),
+                    Integer.parseInt(f[3]), f[4].equals("1"), decode(f[6]), f[5].equals("1"));
+            e.state = State.valueOf(f[2]);
+            e.output = f[8].equals("-") ? null : Uri.parse(f[8]);
+            e.detail = decode(f[9]);
+            return e;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static String encode(String s) {
+        return s == null ? "-" : Uri.encode(s);
+    }
+
+    private static String decode(String s) {
+        return s.equals("-") ? null : Uri.decode(s);
+    }
+}
@@ -0,0 +1,67 @@
+package com.nemesis.pixelcloak;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.face.Face;
+import com.google.mlkit.vision.face.FaceDetection;
+import com.google.mlkit.vision.face.FaceDetector;
+import com.google.mlkit.vision.face.FaceDetectorOptions;
+
+import com.nemesis.pixelcloak.engine.DetectionScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/** The app's face detector: ML Kit's on-device model in its fast mode. */
+final class MlKitFaceDetector implements BitmapFaceDetector {
+    private final FaceDetector detector;
+
+    MlKitFaceDetector() {
+        FaceDetectorOptions options = new FaceDetectorOptions.Builder()
+                .setPerformanceMode(FaceDetectorOptions.PERFORMANCE_MODE_FAST)
+                .setContourMode(FaceDetectorOptions.CONTOUR_MODE_NONE)
+                .setClassificationMode(FaceDetectorOptions.CLASSIFICATION_MODE_NONE)
+                .setMinFaceSize((float) DetectionScheduler.MIN_FACE_FRACTION)
+                .build();
+        this.detector = FaceDetection.getClient(options);
+    }
+
+    @Override
+    public List<int[]> detect(int[] argb, int w, int h, int rotation) throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(argb, w, h, Bitmap.Config.ARGB_8888);
+        try {
+            return detect(bitmap, rotation);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    @Override
+    public List<int[]> detect(Bitmap bitmap, int rotation) throws Exception {
+        InputImage image = InputImage.fromBitmap(bitmap, rotation);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ArrayList<Face> faces = new ArrayList<>();
+        final Exception[] exceptionHolder = new Exception[1];
+
+        detector.process(image)
+                .addOnSuccessListener(f -> { faces.addAll(f); latch.countDown(); })
+                .addOnFailureListener(e -> { exceptionHolder[0] = e; latch.countDown(); });
+        latch.await();
+
+        if (exceptionHolder[0] != null) throw exceptionHolder[0];
+        List<int[]> boxes = new ArrayList<>(faces.size());
+        for (Face face : faces) {
+            Rect b = face.getBoundingBox();
+            boxes.add(new int[]{b.left, b.top, b.right, b.bottom});
+        }
+        return boxes;
+    }
+
+    @Override
+    public void close() {
+        detector.close();
+    }
+}
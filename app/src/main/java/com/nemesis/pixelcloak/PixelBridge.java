@@ -0,0 +1,117 @@
+package com.nemesis.pixelcloak;
+
+import android.graphics.Bitmap;
+
+import com.nemesis.pixelcloak.engine.ImagePlane;
+import com.nemesis.pixelcloak.engine.Orientation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Moves pixels between bitmaps and float RGB planes through one direct buffer that is kept
+ * between runs, so the pixels cross the JNI boundary in a single bulk copy and never as a
+ * full-size array on the Java heap. Only one job may use a bridge at a time.
+ */
+final class PixelBridge {
+    private ByteBuffer buffer;
+
+    /**
+     * Copies {@code src} into an RGB plane as seen rotated clockwise by {@code rotation}.
+     * Translucent pixels are unpremultiplied, matching what {@link Bitmap#getPixels} returns.
+     */
+    void toPlane(Bitmap src, int rotation, ImagePlane dst) {
+        if (src.getConfig() != Bitmap.Config.ARGB_8888) {
+            Bitmap copy = src.copy(Bitmap.Config.ARGB_8888, false);
+            try {
+                toPlane(copy, rotation, dst);
+            } finally {
+                copy.recycle();
+            }
+            return;
+        }
+        final int w = src.getWidth(), h = src.getHeight();
+        final int rowBytes = src.getRowBytes();
+        final int degrees = Orientation.normalize(rotation);
+        final boolean premultiplied = src.hasAlpha() && src.isPremultiplied();
+        ByteBuffer bb = obtainBuffer(src.getByteCount());
+        src.copyPixelsToBuffer(bb);
+
+        byte[] rgba = new byte[w * 4];
+        float[] row = new float[w * 3];
+        for (int y = 0; y < h; y++) {
+            bb.position(y * rowBytes);
+            bb.get(rgba, 0, rgba.length);
+            for (int x = 0; x < w; x++) {
+                int r = rgba[x * 4] & 0xFF, g = rgba[x * 4 + 1] & 0xFF, b = rgba[x * 4 + 2] & 0xFF;
+                int a = rgba[x * 4 + 3] & 0xFF;
+                if (premultiplied && a != 0xFF && a != 0) {
+                    r = Math.min(255, (r * 255 + a / 2) / a);
+                    g = Math.min(255, (g * 255 + a / 2) / a);
+                    b = Math.min(255, (b * 255 + a / 2) / a);
+                }
+                row[x * 3] = r;
+                row[x * 3 + 1] = g;
+                row[x * 3 + 2] = b;
+            }
+            if (degrees == 0) {
+                dst.writeRow(y, row);
+                continue;
+            }
+            for (int x = 0; x < w; x++) {
+                long o = Orientation.rotatedIndex(x, y, w, h, degrees) * 3;
+                dst.set(o, row[x * 3]);
+                dst.set(o + 1, row[x * 3 + 1]);
+                dst.set(o + 2, row[x * 3 + 2]);
+            }
+        }
+    }
+
+    void writePlane(ImagePlane src, Bitmap dst) {
+        if (!dst.isMutable() || dst.getConfig() != Bitmap.Config.ARGB_8888
+                || dst.getWidth() != src.w || dst.getHeight() != src.h) {
+            throw new IllegalArgumentException("Destination must be a mutable ARGB_8888 bitmap of the plane's size");
+        }
+        final int rowBytes = dst.getRowBytes();
+        ByteBuffer bb = obtainBuffer(dst.getByteCount());
+        byte[] rgba = new byte[src.w * 4];
+        float[] row = new float[src.stride()];
+        for (int y = 0; y < src.h; y++) {
+            src.readRow(y, row);
+            for (int x = 0; x < src.w; x++) {
+                rgba[x * 4] = clampToByte(row[x * 3]);
+                rgba[x * 4 + 1] = clampToByte(row[x * 3 + 1]);
+                rgba[x * 4 + 2] = clampToByte(row[x * 3 + 2]);
+                rgba[x * 4 + 3] = (byte) 0xFF;
+            }
+            bb.position(y * rowBytes);
+            bb.put(rgba, 0, rgba.length);
+        }
+        bb.rewind();
+        dst.copyPixelsFromBuffer(bb);
+    }
+
+    static Bitmap obtainMutable(Bitmap candidate, Bitmap keep, int w, int h) {
+        if (candidate != null && candidate != keep && candidate.isMutable()
+                && candidate.getConfig() == Bitmap.Config.ARGB_8888
+                && candidate.getWidth() == w && candidate.getHeight() == h) {
+            return candidate;
+        }
+        return Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+    }
+
+    private ByteBuffer obtainBuffer(int bytes) {
+        if (buffer == null || buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        buffer.limit(bytes);
+        return buffer;
+    }
+
+    private static byte clampToByte(float v) {
+        if (v <= 0f) return 0;
+        if (v >= 255f) return (byte) 0xFF;
+        return (byte) (int) (v + 0.5f);
+    }
+}
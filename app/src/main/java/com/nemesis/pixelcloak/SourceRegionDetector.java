@@ -0,0 +1,133 @@
+package com.nemesis.pixelcloak;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.util.Log;
+
+import com.nemesis.pixelcloak.engine.DetectionScheduler;
+import com.nemesis.pixelcloak.engine.Orientation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a {@link BitmapFaceDetector} on regions of a job's source for a {@link DetectionScheduler}.
+ * The whole-frame pass reuses the bitmap already decoded for processing; tiles are decoded
+ * straight from the source with a {@link BitmapRegionDecoder}, subsampled to their level, so
+ * each thread holds no more than one tile's pixels. Sources the region decoder can't read get
+ * the whole-frame pass only.
+ */
+final class SourceRegionDetector implements DetectionScheduler.RegionDetector, AutoCloseable {
+    private static final String TAG = "SourceRegionDetector";
+
+    private final ContentResolver resolver;
+    private final Uri source;
+    private final Bitmap processed;
+    private final int width, height;
+    private final int rotation;
+    private final BitmapFaceDetector faces;
+    private BitmapRegionDecoder decoder;
+    private boolean decoderFailed;
+
+    /**
+     * {@code processed} is the source sampled down in its stored orientation, and
+     * {@code width} by {@code height} the source's stored full-resolution size. The caller
+     * keeps ownership of {@code faces}.
+     */
+    SourceRegionDetector(ContentResolver resolver, Uri source, Bitmap processed, int width, int height, int rotation,
+                         BitmapFaceDetector faces) {
+        this.resolver = resolver;
+        this.source = source;
+        this.processed = processed;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.faces = faces;
+    }
+
+    @Override
+    public List<int[]> detect(int[] region, int maxDim) throws Exception {
+        boolean swap = Orientation.swapsAxes(rotation);
+        int uprightW = swap ? height : width;
+        int uprightH = swap ? width : height;
+        boolean whole = region[0] == 0 && region[1] == 0 && region[2] == uprightW && region[3] == uprightH;
+
+        Bitmap image;
+        if (whole) {
+            image = CloakPipeline.downscaleForProcessing(processed, maxDim);
+        } else {
+            BitmapRegionDecoder d = decoder();
+            if (d == null) return Collections.emptyList();
+            int[] stored = Orientation.unrotateBox(region, width, height, rotation);
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            opts.inSampleSize = CloakPipeline.sampleSizeFor(
+                    Math.max(stored[2] - stored[0], stored[3] - stored[1]), maxDim);
+            Bitmap tile = d.decodeRegion(new Rect(stored[0], stored[1], stored[2], stored[3]), opts);
+            if (tile == null) return Collections.emptyList();
+            image = CloakPipeline.downscaleForProcessing(tile, maxDim);
+            if (image != tile) tile.recycle();
+        }
+
+        int viewW = swap ? image.getHeight() : image.getWidth();
+        int viewH = swap ? image.getWidth() : image.getHeight();
+        List<int[]> boxes;
+        try {
+            boxes = faces.detect(image, rotation);
+        } finally {
+            if (image != processed) image.recycle();
+        }
+        return DetectionScheduler.toRegion(boxes, region, viewW, viewH);
+    }
+
+    /** Judged on {@code processed}, which is sharp enough to show whether a tile has any detail. */
+    @Override
+    public boolean isFlat(int[] region) {
+        int[] stored = Orientation.unrotateBox(region, width, height, rotation);
+        double toProcessed = (double) processed.getWidth() / width;
+        int x = (int) Math.floor(stored[0] * toProcessed);
+        int y = (int) Math.floor(stored[1] * toProcessed);
+        int w = Math.min(processed.getWidth(), (int) Math.ceil(stored[2] * toProcessed)) - x;
+        int h = Math.min(processed.getHeight(), (int) Math.ceil(stored[3] * toProcessed)) - y;
+        if (w <= 0 || h <= 0) return false;
+
+        float s = Math.min(1f, (float) DetectionScheduler.FLAT_SAMPLE_DIM / Math.max(w, h));
+        Matrix m = new Matrix();
+        m.setScale(s, s);
+        Bitmap thumb = Bitmap.createBitmap(processed, x, y, w, h, m, true);
+        try {
+            int tw = thumb.getWidth(), th = thumb.getHeight();
+            int[] argb = new int[tw * th];
+            thumb.getPixels(argb, 0, tw, 0, 0, tw, th);
+            return DetectionScheduler.isFlat(argb, tw, th);
+        } finally {
+            if (thumb != processed) thumb.recycle();
+        }
+    }
+
+    private synchronized BitmapRegionDecoder decoder() {
+        if (decoder == null && !decoderFailed) {
+            try (InputStream in = resolver.openInputStream(source)) {
+                if (in == null) throw new IOException("Couldn't open source image");
+                decoder = BitmapRegionDecoder.newInstance(in, false);
+            } catch (IOException e) {
+                Log.i(TAG, "Whole-frame face detection only: " + e.getMessage());
+                decoderFailed = true;
+            }
+        }
+        return decoder;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (decoder != null) decoder.recycle();
+        decoder = null;
+    }
+}
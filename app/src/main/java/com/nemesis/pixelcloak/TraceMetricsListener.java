@@ -0,0 +1,18 @@
+package com.nemesis.pixelcloak;
+
+import android.os.Trace;
+
+import com.nemesis.pixelcloak.engine.MetricsListener;
+import com.nemesis.pixelcloak.engine.Stage;
+
+final class TraceMetricsListener implements MetricsListener {
+    @Override
+    public void onStageBegin(Stage stage) {
+        Trace.beginSection(stage.traceName());
+    }
+
+    @Override
+    public void onStageEnd(Stage stage, long wallNanos, long bytesAllocated, int iterations) {
+        Trace.endSection();
+    }
+}
@@ -0,0 +1,18 @@
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    implementation(project(":engine"))
+    testImplementation(libs.junit)
+}
+
+application {
+    mainClass.set("com.nemesis.pixelcloak.cli.PixelCloakCli")
+    applicationName = "pixelcloak"
+}
@@ -0,0 +1,170 @@
+package com.nemesis.pixelcloak.cli;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+
+import org.w3c.dom.Node;
+
+/**
+ * Turns the frames of an animated GIF, which may each cover only part of the logical screen
+ * and come with a disposal method, into whole frames, and writes whole frames back with
+ * nothing but their delay and a loop count. Comments and other extensions are dropped.
+ */
+final class GifFrames {
+    private static final String IMAGE_FORMAT = "javax_imageio_gif_image_1.0";
+    private static final String STREAM_FORMAT = "javax_imageio_gif_stream_1.0";
+
+    /** Where a raw frame goes on the logical screen, and what happens to it afterwards. */
+    static final class Placement {
+        final int left, top;
+        final String disposal;
+        /** In hundredths of a second, as GIF stores it. */
+        final int delay;
+
+        Placement(int left, int top, String disposal, int delay) {
+            this.left = left;
+            this.top = top;
+            this.disposal = disposal;
+            this.delay = delay;
+        }
+    }
+
+    private final BufferedImage canvas;
+    private BufferedImage saved;
+    private int[] clear;
+
+    GifFrames(int width, int height) {
+        this.canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /** The logical screen size, or the first frame's size when the stream doesn't say. */
+    static int[] logicalScreen(ImageReader reader) throws IOException {
+        IIOMetadata stream = reader.getStreamMetadata();
+        if (stream != null) {
+            Node d = child(stream.getAsTree(STREAM_FORMAT), "LogicalScreenDescriptor");
+            if (d != null) {
+                int w = intAttr(d, "logicalScreenWidth", 0);
+                int h = intAttr(d, "logicalScreenHeight", 0);
+                if (w > 0 && h > 0) return new int[]{w, h};
+            }
+        }
+        return new int[]{reader.getWidth(0), reader.getHeight(0)};
+    }
+
+    static Placement placement(IIOMetadata image) {
+        Node root = image.getAsTree(IMAGE_FORMAT);
+        Node d = child(root, "ImageDescriptor");
+        Node gce = child(root, "GraphicControlExtension");
+        return new Placement(
+                d != null ? intAttr(d, "imageLeftPosition", 0) : 0,
+                d != null ? intAttr(d, "imageTopPosition", 0) : 0,
+                gce != null ? gce.getAttributes().getNamedItem("disposalMethod").getNodeValue() : "none",
+                gce != null ? intAttr(gce, "delayTime", 0) : 0);
+    }
+
+    /**
+     * Draws {@code raw} at its place on the screen and returns the whole frame as opaque RGB,
+     * with transparent areas black. Then applies the frame's disposal for the next one.
+     */
+    BufferedImage compose(BufferedImage raw, Placement at) {
+        if (clear != null) {
+            Graphics2D g = canvas.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(clear[0], clear[1], clear[2], clear[3]);
+            g.dispose();
+            clear = null;
+        }
+        if ("restoreToPrevious".equals(at.disposal)) saved = copy(canvas, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D g = canvas.createGraphics();
+        g.drawImage(raw, at.left, at.top, null);
+        g.dispose();
+
+        BufferedImage frame = new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D f = frame.createGraphics();
+        f.setColor(Color.BLACK);
+        f.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+        f.drawImage(canvas, 0, 0, null);
+        f.dispose();
+
+        if ("restoreToBackgroundColor".equals(at.disposal)) {
+            clear = new int[]{at.left, at.top, raw.getWidth(), raw.getHeight()};
+        } else if ("restoreToPrevious".equals(at.disposal) && saved != null) {
+            Graphics2D r = canvas.createGraphics();
+            r.setComposite(AlphaComposite.Src);
+            r.drawImage(saved, 0, 0, null);
+            r.dispose();
+            saved = null;
+        }
+        return frame;
+    }
+
+    /** Metadata for a whole frame shown for {@code delay} hundredths; the first also loops forever. */
+    static IIOMetadata frameMetadata(ImageWriter writer, BufferedImage frame, int delay, boolean first)
+            throws IIOInvalidTreeException {
+        IIOMetadata meta = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(frame), null);
+        IIOMetadataNode root = (IIOMetadataNode) meta.getAsTree(IMAGE_FORMAT);
+
+        IIOMetadataNode gce = node(root, "GraphicControlExtension");
+        gce.setAttribute("disposalMethod", "none");
+        gce.setAttribute("userInputFlag", "FALSE");
+        gce.setAttribute("transparentColorFlag", "FALSE");
+        gce.setAttribute("delayTime", Integer.toString(delay));
+        gce.setAttribute("transparentColorIndex", "0");
+
+        if (first) {
+            IIOMetadataNode apps = node(root, "ApplicationExtensions");
+            IIOMetadataNode netscape = new IIOMetadataNode("ApplicationExtension");
+            netscape.setAttribute("applicationID", "NETSCAPE");
+            netscape.setAttribute("authenticationCode", "2.0");
+            netscape.setUserObject(new byte[]{1, 0, 0});
+            apps.appendChild(netscape);
+        }
+        meta.setFromTree(IMAGE_FORMAT, root);
+        return meta;
+    }
+
+    private static BufferedImage copy(BufferedImage src, int type) {
+        BufferedImage dst = new BufferedImage(src.getWidth(), src.getHeight(), type);
+        Graphics2D g = dst.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return dst;
+    }
+
+    private static IIOMetadataNode node(IIOMetadataNode root, String name) {
+        Node n = child(root, name);
+        if (n != null) return (IIOMetadataNode) n;
+        IIOMetadataNode created = new IIOMetadataNode(name);
+        root.appendChild(created);
+        return created;
+    }
+
+    private static Node child(Node root, String name) {
+        for (Node n = root.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (name.equals(n.getNodeName())) return n;
+        }
+        return null;
+    }
+
+    private static int intAttr(Node n, String name, int fallback) {
+        Node a = n.getAttributes().getNamedItem(name);
+        if (a == null) return fallback;
+        try {
+            return Integer.parseInt(a.getNodeValue());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package com.nemesis.pixelcloak.cli;
+
+import com.nemesis.pixelcloak.engine.CloakEngine;
+import com.nemesis.pixelcloak.engine.DetectionScheduler;
+import com.nemesis.pixelcloak.engine.ExifOrientation;
+import com.nemesis.pixelcloak.engine.FaceBoxDetector;
+import com.nemesis.pixelcloak.engine.FileNames;
+import com.nemesis.pixelcloak.engine.ImagePlane;
+import com.nemesis.pixelcloak.engine.MetadataStripper;
+import com.nemesis.pixelcloak.engine.Orientation;
+import com.nemesis.pixelcloak.engine.PipelineMetrics;
+import com.nemesis.pixelcloak.engine.PlaneAllocator;
+import com.nemesis.pixelcloak.engine.ResourceGovernor;
+import com.nemesis.pixelcloak.engine.SequenceCloaker;
+import com.nemesis.pixelcloak.engine.Stage;
+import com.nemesis.pixelcloak.engine.StageScope;
+import com.nemesis.pixelcloak.engine.jpeg.DctCloakEngine;
+import com.nemesis.pixelcloak.engine.jpeg.JpegCoefficientReader;
+import com.nemesis.pixelcloak.engine.jpeg.JpegCoefficientWriter;
+import com.nemesis.pixelcloak.engine.jpeg.JpegCoefficients;
+import com.nemesis.pixelcloak.engine.jpeg.UnsupportedJpegException;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+final class ImageScrubber {
+    private static final double STRENGTH = 0.6;
+    private static final double PATCH_DENSITY = 0.06;
+    private static final int BLOCK_SIZE = 8;
+    private static final double TARGET_SSIM = 0.95;
+    private static final int MAX_ITERS = 6;
+    private static final double TARGET_PSNR = 38.0;
+    private static final float FACE_PADDING = 0.12f;
+    /** Mean luma change, in levels, under which a frame reuses the previous frame's work. */
+    private static final double SEQUENCE_CHANGE = 4.0;
+
+    static final class Outcome {
+        final Path output;
+        final int width, height;
+        final double ssim;
+        final double psnr;
+        final long bytes;
+        /** For an animation: its frame count, how many reused earlier work, and frames per second. */
+        final int frames;
+        final int reusedFrames;
+        final double fps;
+
+        Outcome(Path output, int width, int height, double ssim, double psnr, long bytes) {
+            this(output, width, height, ssim, psnr, bytes, 1, 0, Double.NaN);
+        }
+
+        Outcome(Path output, int width, int height, double ssim, double psnr, long bytes,
+                int frames, int reusedFrames, double fps) {
+            this.output = output;
+            this.width = width;
+            this.height = height;
+            this.ssim = ssim;
+            this.psnr = psnr;
+            this.bytes = bytes;
+            this.frames = frames;
+            this.reusedFrames = reusedFrames;
+            this.fps = fps;
+        }
+    }
+
+    private final Path outputDir;
+    private final int maxDim;
+    private final ResourceGovernor governor;
+    private final int jpegQuality;
+    private final float quality;
+    private final boolean jpegDomain;
+    private final Path scratchDir;
+    private final FaceBoxDetector faces;
+    private final DetectionScheduler faceScheduler;
+    private final PipelineMetrics metrics;
+    private final AtomicBoolean cancelled;
+    private final SecureRandom nameRandom = new SecureRandom();
+    private final ThreadLocal<CloakEngine> engines;
+    private final ThreadLocal<DctCloakEngine> dctEngines;
+    private final ThreadLocal<MetadataStripper> strippers = ThreadLocal.withInitial(MetadataStripper::new);
+
+    /**
+     * With a {@code scratchDir}, the engine's working planes are memory-mapped files there
+     * instead of heap arrays, and only the decoded images count against the heap. With
+     * {@code faces}, faces found through {@code faceScheduler} are blacked out.
+     */
+    ImageScrubber(Path outputDir, int maxDim, ResourceGovernor governor, int quality, boolean jpegDomain,
+                  Path scratchDir, FaceBoxDetector faces, DetectionScheduler faceScheduler,
+                  PipelineMetrics metrics, AtomicBoolean cancelled) {
+        this.outputDir = outputDir;
+        this.maxDim = maxDim;
+        this.governor = governor;
+        this.jpegQuality = Math.max(1, Math.min(100, quality));
+        this.quality = jpegQuality / 100f;
+        this.jpegDomain = jpegDomain;
+        this.scratchDir = scratchDir;
+        this.faces = faces;
+        this.faceScheduler = faceScheduler;
+        this.metrics = metrics;
+        this.cancelled = cancelled;
+        this.engines = ThreadLocal.withInitial(() -> new CloakEngine(new SecureRandom(), cancelled, metrics));
+        this.dctEngines = ThreadLocal.withInitial(() -> new DctCloakEngine(new SecureRandom(), cancelled, metrics));
+    }
+
+    static int[] probe(Path input) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(input.toFile())) {
+            if (iis == null) throw new IOException("Cannot open " + input);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) throw new IOException("Unsupported image format: " + input);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    long estimateBytes(int w, int h) {
+        int[] p = processSize(w, h);
+        long pixelPath = fixedBytes(w, h) + (scratchDir != null
+                ? ResourceGovernor.offHeapWorkingSetBytes(p[0], p[1])
+                : ResourceGovernor.workingSetBytes(p[0], p[1]));
+        if (!jpegDomain) return pixelPath;
+        long dct = DctCloakEngine.estimatePeakBytes(w, h) + (faces != null ? (long) w * h * 4 : 0);
+        return Math.max(pixelPath, dct);
+    }
+
+    Outcome scrub(Path input) throws IOException {
+        if (jpegDomain && isJpeg(input)) {
+            try {
+                return scrubCoefficients(input);
+            } catch (UnsupportedJpegException e) {
+                // Progressive, arithmetic or 12-bit JPEGs go through the pixel pipeline.
+            }
+        }
+        if (isAnimatedGif(input)) return scrubAnimation(input);
+        BufferedImage decoded;
+        int rotation;
+        try (StageScope s = metrics.begin(Stage.LOAD)) {
+            decoded = ImageIO.read(input.toFile());
+            if (decoded == null) throw new IOException("Unsupported image format: " + input);
+            rotation = readRotation(input);
+            s.addBytes((long) decoded.getWidth() * decoded.getHeight() * 4);
+        }
+        Cloaked c = cloakPixels(decoded, rotation, newPlanes(), null);
+        return save(c);
+    }
+
+    /** The cloaked, censored image at full resolution, with how its search went. */
+    private static final class Cloaked {
+        final BufferedImage image;
+        final double ssim;
+        final boolean reused;
+
+        Cloaked(BufferedImage image, double ssim, boolean reused) {
+            this.image = image;
+            this.ssim = ssim;
+            this.reused = reused;
+        }
+    }
+
+    /**
+     * Cloaks {@code decoded} viewed rotated clockwise by {@code rotation}. With a
+     * {@code sequence}, the frame goes through it and may reuse an earlier frame's work.
+     */
+    private Cloaked cloakPixels(BufferedImage decoded, int rotation, PlaneAllocator planes,
+                                SequenceCloaker sequence) throws IOException {
+        final boolean swap = Orientation.swapsAxes(rotation);
+        final int outW = swap ? decoded.getHeight() : decoded.getWidth();
+        final int outH = swap ? decoded.getWidth() : decoded.getHeight();
+        List<int[]> boxes = sequence == null ? detectFaces(decoded, rotation) : null;
+
+        int[] p = processSize(decoded.getWidth(), decoded.getHeight());
+        BufferedImage small;
+        try (StageScope s = metrics.begin(Stage.DOWNSCALE)) {
+            small = resample(decoded, p[0], p[1]);
+            s.addBytes((long) p[0] * p[1] * 4);
+        }
+
+        final int w = swap ? p[1] : p[0];
+        final int h = swap ? p[0] : p[1];
+        CloakEngine.Result r;
+        boolean reused = false;
+        BufferedImage out;
+        try (ImagePlane orig = planes.allocate(w, h, 3);
+             ImagePlane best = planes.allocate(w, h, 3)) {
+            toPlane(small, rotation, orig);
+            small = null;
+            if (sequence == null) {
+                r = engines.get().perturb(orig, best, planes,
+                        STRENGTH, TARGET_SSIM, MAX_ITERS, PATCH_DENSITY, BLOCK_SIZE, null);
+            } else {
+                SequenceCloaker.Frame f;
+                try {
+                    f = sequence.next(orig, best, faces != null ? () -> detectFaces(decoded, rotation) : null);
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+                r = f.result;
+                reused = f.reused;
+                boxes = f.faces;
+            }
+            if (cancelled.get()) throw new IOException("Cancelled");
+            out = fromPlane(best);
+        }
+
+        if (r.w != outW || r.h != outH) {
+            try (StageScope s = metrics.begin(Stage.UPSCALE)) {
+                out = resample(out, outW, outH);
+                s.addBytes((long) outW * outH * 4);
+            }
+        }
+        if (boxes != null) censor(out, boxes);
+        return new Cloaked(out, r.ssim, reused);
+    }
+
+    private Outcome save(Cloaked c) throws IOException {
+        Path target = outputDir.resolve(FileNames.randomNumeric(nameRandom, "jpg"));
+        metrics.time(Stage.SAVE, () -> writeJpeg(c.image, target));
+        return new Outcome(target, c.image.getWidth(), c.image.getHeight(), c.ssim, Double.NaN, Files.size(target));
+    }
+
+    private PlaneAllocator newPlanes() {
+        return scratchDir != null
+                ? new PlaneAllocator(0, 0, scratchDir.toFile())
+                : PlaneAllocator.heapOnly();
+    }
+
+    /**
+     * Frames of a burst, cloaked in order on the calling thread, each saved as its own JPEG.
+     * Frames close to the last fully searched one reuse its mask and scale; faces are found
+     * in every frame.
+     */
+    final class Sequence implements AutoCloseable {
+        private final PlaneAllocator planes = newPlanes();
+        private final SequenceCloaker cloaker = new SequenceCloaker(engines.get(), planes,
+                STRENGTH, TARGET_SSIM, MAX_ITERS, PATCH_DENSITY, BLOCK_SIZE, SEQUENCE_CHANGE, metrics);
+
+        Outcome scrub(Path input) throws IOException {
+            BufferedImage decoded;
+            int rotation;
+            try (StageScope s = metrics.begin(Stage.LOAD)) {
+                decoded = ImageIO.read(input.toFile());
+                if (decoded == null) throw new IOException("Unsupported image format: " + input);
+                rotation = readRotation(input);
+                s.addBytes((long) decoded.getWidth() * decoded.getHeight() * 4);
+            }
+            return save(cloak(decoded, rotation));
+        }
+
+        Cloaked cloak(BufferedImage frame, int rotation) throws IOException {
+            return cloakPixels(frame, rotation, planes, cloaker);
+        }
+
+        SequenceCloaker stats() {
+            return cloaker;
+        }
+
+        @Override
+        public void close() {
+            cloaker.close();
+        }
+    }
+
+    Sequence openSequence() {
+        return new Sequence();
+    }
+
+    private static boolean isAnimatedGif(Path input) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(input.toFile())) {
+            if (iis == null) return false;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return false;
+            ImageReader reader = readers.next();
+            try {
+                if (!"gif".equalsIgnoreCase(reader.getFormatName())) return false;
+                reader.setInput(iis, false, false);
+                return reader.getNumImages(true) > 1;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Cloaks every frame of an animated GIF as a {@link Sequence} and writes them back as a
+     * GIF with the same frame delays. Frames are composited onto the logical screen first, so
+     * each one is cloaked as it is seen; the output stores every frame whole.
+     */
+    private Outcome scrubAnimation(Path input) throws IOException {
+        Path target = outputDir.resolve(FileNames.randomNumeric(nameRandom, "gif"));
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        int frames = 0;
+        double ssimSum = 0;
+        int width, height;
+        SequenceCloaker stats;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(input.toFile());
+             Sequence sequence = openSequence();
+             OutputStream os = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+             ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+            ImageReader reader = ImageIO.getImageReaders(iis).next();
+            try {
+                reader.setInput(iis, false, false);
+                int[] screen = GifFrames.logicalScreen(reader);
+                width = screen[0];
+                height = screen[1];
+                writer.setOutput(ios);
+                writer.prepareWriteSequence(null);
+                GifFrames composer = new GifFrames(width, height);
+                int count = reader.getNumImages(true);
+                for (int i = 0; i < count && !cancelled.get(); i++) {
+                    BufferedImage raw;
+                    GifFrames.Placement at;
+                    try (StageScope s = metrics.begin(Stage.LOAD)) {
+                        raw = reader.read(i);
+                        at = GifFrames.placement(reader.getImageMetadata(i));
+                        s.addBytes((long) raw.getWidth() * raw.getHeight() * 4);
+                    }
+                    BufferedImage frame = composer.compose(raw, at);
+                    Cloaked c = sequence.cloak(frame, 0);
+                    IIOMetadata meta = GifFrames.frameMetadata(writer, c.image, at.delay, frames == 0);
+                    metrics.time(Stage.ENCODE, () -> writer.writeToSequence(new IIOImage(c.image, null, meta), null));
+                    frames++;
+                    ssimSum += c.ssim;
+                }
+                writer.endWriteSequence();
+                stats = sequence.stats();
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        } finally {
+            writer.dispose();
+        }
+        if (cancelled.get()) {
+            Files.deleteIfExists(target);
+            throw new IOException("Cancelled");
+        }
+        return new Outcome(target, width, height, frames > 0 ? ssimSum / frames : Double.NaN, Double.NaN,
+                Files.size(target), frames, stats.reusedFrames(), stats.framesPerSecond());
+    }
+
+    private Outcome scrubCoefficients(Path input) throws IOException {
+        JpegCoefficients source;
+        try (StageScope s = metrics.begin(Stage.LOAD);
+             InputStream in = new BufferedInputStream(Files.newInputStream(input), 64 * 1024)) {
+            source = JpegCoefficientReader.read(in);
+            s.addBytes(source.coefficientBytes());
+        }
+
+        List<int[]> boxes = new ArrayList<>();
+        if (faces != null) {
+            BufferedImage decoded;
+            try (StageScope s = metrics.begin(Stage.LOAD)) {
+                decoded = ImageIO.read(input.toFile());
+                if (decoded == null) throw new IOException("Unsupported image format: " + input);
+                s.addBytes((long) decoded.getWidth() * decoded.getHeight() * 4);
+            }
+            int rotation = ExifOrientation.degreesForValue(source.exifOrientation);
+            for (int[] b : detectFaces(decoded, rotation)) {
+                boxes.add(Orientation.unrotateBox(b, source.width, source.height, rotation));
+            }
+        }
+
+        DctCloakEngine.Result r = dctEngines.get().strongPerturbCoefficients(source,
+                STRENGTH, TARGET_PSNR, MAX_ITERS, jpegQuality);
+        if (cancelled.get()) throw new IOException("Cancelled");
+        if (!boxes.isEmpty()) {
+            metrics.time(Stage.CENSOR, () -> {
+                for (int[] b : boxes) DctCloakEngine.blackOut(r.coefficients, b[0], b[1], b[2], b[3]);
+            });
+        }
+
+        Path target = outputDir.resolve(FileNames.randomNumeric(nameRandom, "jpg"));
+        try {
+            metrics.time(Stage.SAVE, () -> {
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(target,
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 64 * 1024)) {
+                    JpegCoefficientWriter.write(r.coefficients, os, source.exifOrientation);
+                }
+            });
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        boolean swap = Orientation.swapsAxes(ExifOrientation.degreesForValue(source.exifOrientation));
+        return new Outcome(target, swap ? source.height : source.width, swap ? source.width : source.height,
+                Double.NaN, r.psnr, Files.size(target));
+    }
+
+    /**
+     * Padded boxes around the faces in {@code img} viewed rotated clockwise by
+     * {@code rotation}, in that view's full-resolution coordinates; empty when face
+     * censoring is off.
+     */
+    private List<int[]> detectFaces(BufferedImage img, int rotation) throws IOException {
+        List<int[]> boxes = new ArrayList<>();
+        if (faces == null) return boxes;
+        final boolean swap = Orientation.swapsAxes(rotation);
+        final int viewW = swap ? img.getHeight() : img.getWidth();
+        final int viewH = swap ? img.getWidth() : img.getHeight();
+        List<int[]> found;
+        try {
+            found = faceScheduler.detect(viewW, viewH, new DetectionScheduler.RegionDetector() {
+                @Override
+                public List<int[]> detect(int[] region, int maxDim) throws Exception {
+                    int[] stored = Orientation.unrotateBox(region, img.getWidth(), img.getHeight(), rotation);
+                    BufferedImage tile = crop(img, stored, maxDim);
+                    int tw = tile.getWidth(), th = tile.getHeight();
+                    int[] argb = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+                    List<int[]> seen = faces.detect(argb, tw, th, rotation);
+                    return DetectionScheduler.toRegion(seen, region, swap ? th : tw, swap ? tw : th);
+                }
+
+                @Override
+                public boolean isFlat(int[] region) {
+                    int[] stored = Orientation.unrotateBox(region, img.getWidth(), img.getHeight(), rotation);
+                    BufferedImage thumb = crop(img, stored, DetectionScheduler.FLAT_SAMPLE_DIM);
+                    int[] argb = ((DataBufferInt) thumb.getRaster().getDataBuffer()).getData();
+                    return DetectionScheduler.isFlat(argb, thumb.getWidth(), thumb.getHeight());
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Face detection failed", e);
+        }
+        for (int[] b : found) {
+            int padW = (int) ((b[2] - b[0]) * FACE_PADDING);
+            int padH = (int) ((b[3] - b[1]) * FACE_PADDING);
+            boxes.add(new int[]{
+                    Math.max(0, b[0] - padW),
+                    Math.max(0, b[1] - padH),
+                    Math.min(viewW, b[2] + padW),
+                    Math.min(viewH, b[3] + padH)
+            });
+        }
+        return boxes;
+    }
+
+    /** The {left, top, right, bottom} part of {@code img}, reduced to at most {@code maxDim} on its long side. */
+    private static BufferedImage crop(BufferedImage img, int[] box, int maxDim) {
+        int w = box[2] - box[0], h = box[3] - box[1];
+        double scale = Math.min(1.0, (double) maxDim / Math.max(w, h));
+        return resample(img.getSubimage(box[0], box[1], w, h),
+                (int) Math.max(1, Math.round(w * scale)), (int) Math.max(1, Math.round(h * scale)));
+    }
+
+    private void censor(BufferedImage img, List<int[]> boxes) {
+        if (boxes.isEmpty()) return;
+        metrics.time(Stage.CENSOR, () -> {
+            Graphics2D g = img.createGraphics();
+            try {
+                g.setColor(Color.BLACK);
+                for (int[] b : boxes) g.fillRect(b[0], b[1], b[2] - b[0], b[3] - b[1]);
+            } finally {
+                g.dispose();
+            }
+        });
+    }
+
+    private static boolean isJpeg(Path input) throws IOException {
+        try (InputStream in = Files.newInputStream(input)) {
+            byte[] head = new byte[3];
+            int n = in.readNBytes(head, 0, head.length);
+            return MetadataStripper.detect(head, n) == MetadataStripper.Format.JPEG;
+        }
+    }
+
+    Outcome strip(Path input) throws IOException {
+        try (StageScope s = metrics.begin(Stage.STRIP);
+             FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            byte[] head = new byte[12];
+            int n = in.read(ByteBuffer.wrap(head));
+            in.position(0);
+            MetadataStripper.Format format = MetadataStripper.detect(head, Math.max(0, n));
+            if (format == null) throw new IOException("Strip-only mode supports JPEG, PNG and WebP");
+
+            Path target = outputDir.resolve(FileNames.randomNumeric(nameRandom, format.extension));
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                MetadataStripper.Result r = strippers.get().strip(in, out, MetadataStripper.KEEP_SOURCE_ORIENTATION);
+                s.addBytes(r.bytesOut);
+                return new Outcome(target, 0, 0, Double.NaN, Double.NaN, r.bytesIn);
+            } catch (IOException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+        }
+    }
+
+    private static long fixedBytes(int w, int h) {
+        return (long) w * h * 4 * 2;
+    }
+
+    private int[] processSize(int w, int h) {
+        int limit = maxDim > 0 ? maxDim : governor.chooseProcessDim(w, h, fixedBytes(w, h));
+        int max = Math.max(w, h);
+        if (max <= limit) return new int[]{w, h};
+        double scale = (double) limit / (double) max;
+        return new int[]{
+                (int) Math.max(1, Math.round(w * scale)),
+                (int) Math.max(1, Math.round(h * scale))
+        };
+    }
+
+    private static int readRotation(Path input) {
+        try (InputStream in = Files.newInputStream(input)) {
+            return ExifOrientation.readDegrees(in);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static BufferedImage resample(BufferedImage src, int w, int h) {
+        BufferedImage dst = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = dst.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(src, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return dst;
+    }
+
+    /** Copies {@code img} into {@code dst} as seen rotated clockwise by {@code rotation}. */
+    private static void toPlane(BufferedImage img, int rotation, ImagePlane dst) {
+        final int w = img.getWidth(), h = img.getHeight();
+        final int degrees = Orientation.normalize(rotation);
+        int[] px = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        float[] row = new float[w * 3];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int c = px[y * w + x];
+                row[x * 3] = (c >> 16) & 0xFF;
+                row[x * 3 + 1] = (c >> 8) & 0xFF;
+                row[x * 3 + 2] = c & 0xFF;
+            }
+            if (degrees == 0) {
+                dst.writeRow(y, row);
+                continue;
+            }
+            for (int x = 0; x < w; x++) {
+                long o = Orientation.rotatedIndex(x, y, w, h, degrees) * 3;
+                dst.set(o, row[x * 3]);
+                dst.set(o + 1, row[x * 3 + 1]);
+                dst.set(o + 2, row[x * 3 + 2]);
+            }
+        }
+    }
+
+    private static BufferedImage fromPlane(ImagePlane rgb) {
+        BufferedImage img = new BufferedImage(rgb.w, rgb.h, BufferedImage.TYPE_INT_RGB);
+        int[] px = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        float[] row = new float[rgb.stride()];
+        for (int y = 0; y < rgb.h; y++) {
+            rgb.readRow(y, row);
+            for (int x = 0, s = 0; x < rgb.w; x++) {
+                px[y * rgb.w + x] = (clamp(row[s++]) << 16) | (clamp(row[s++]) << 8) | clamp(row[s++]);
+            }
+        }
+        return img;
+    }
+
+    private static int clamp(float v) {
+        if (v <= 0f) return 0;
+        if (v >= 255f) return 255;
+        return (int) (v + 0.5f);
+    }
+
+    private void writeJpeg(BufferedImage img, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (OutputStream os = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+             ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(ios);
+            metrics.time(Stage.ENCODE, () -> writer.write(null, new IIOImage(img, null, null), param));
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        } finally {
+            writer.dispose();
+        }
+    }
+}
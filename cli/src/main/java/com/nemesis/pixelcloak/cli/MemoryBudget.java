@@ -0,0 +1,31 @@
+package com.nemesis.pixelcloak.cli;
+
+/**
+ * Byte-denominated admission gate. A request larger than the whole budget is clamped to
+ * it, so an oversized image still runs, just alone.
+ */
+final class MemoryBudget {
+    private final long capacity;
+    private long available;
+
+    MemoryBudget(long capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.available = this.capacity;
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    synchronized long acquire(long bytes) throws InterruptedException {
+        long grant = Math.max(1, Math.min(bytes, capacity));
+        while (available < grant) wait();
+        available -= grant;
+        return grant;
+    }
+
+    synchronized void release(long grant) {
+        available = Math.min(capacity, available + grant);
+        notifyAll();
+    }
+}
@@ -0,0 +1,304 @@
+package com.nemesis.pixelcloak.cli;
+
+import com.nemesis.pixelcloak.engine.DetectionScheduler;
+import com.nemesis.pixelcloak.engine.Histogram;
+import com.nemesis.pixelcloak.engine.PipelineMetrics;
+import com.nemesis.pixelcloak.engine.ResourceGovernor;
+import com.nemesis.pixelcloak.engine.SkinToneFaceDetector;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public final class PixelCloakCli {
+    private static final String USAGE =
+            "usage: pixelcloak [options] <file|dir>...\n" +
+            "  -o, --output DIR     directory for cloaked images (required)\n" +
+            "  -l, --list FILE      read input paths from FILE, one per line\n" +
+            "  -t, --threads N      worker threads (default: available processors)\n" +
+            "  -d, --max-dim N      processing resolution in pixels (default: fit to heap, at most ~1 MP)\n" +
+            "  -q, --quality N      output JPEG quality 1-100 (default: 90)\n" +
+            "  -m, --memory F       fraction of the max heap for in-flight images (default: 0.6)\n" +
+            "  -s, --strip-only     only remove metadata, copying image data losslessly\n" +
+            "  -j, --jpeg-domain    cloak JPEGs on their DCT coefficients at full resolution\n" +
+            "      --scratch DIR    keep working planes in memory-mapped files under DIR, off the heap\n" +
+            "      --faces          black out faces found by the built-in skin-tone detector (not for real privacy)\n" +
+            "      --face-budget MS time allowed for high-resolution face tiles per image (default: 2000)\n" +
+            "      --sequence       treat the inputs, in order, as frames of one burst and reuse work between\n" +
+            "                       similar frames; runs on one thread with the pixel engine (animated GIFs\n" +
+            "                       always get this treatment)\n" +
+            "      --metrics        print per-stage timings at the end\n";
+
+    private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp", ".bmp", ".gif", ".wbmp"};
+
+    private PixelCloakCli() {}
+
+    public static void main(String[] args) {
+        int code;
+        try {
+            code = run(args, System.out, System.err);
+        } catch (IllegalArgumentException e) {
+            System.err.println("pixelcloak: " + e.getMessage());
+            System.err.print(USAGE);
+            code = 2;
+        }
+        System.exit(code);
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Path outputDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxDim = 0;
+        int quality = 90;
+        double memoryFraction = 0.6;
+        boolean printMetrics = false;
+        boolean stripOnly = false;
+        boolean jpegDomain = false;
+        Path scratchDir = null;
+        boolean censorFaces = false;
+        boolean sequence = false;
+        int faceBudgetMs = 2000;
+        List<Path> inputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                switch (a) {
+                    case "-o": case "--output": outputDir = Paths.get(value(args, ++i, a)); break;
+                    case "-l": case "--list": inputs.addAll(readList(Paths.get(value(args, ++i, a)))); break;
+                    case "-t": case "--threads": threads = positive(value(args, ++i, a), a); break;
+                    case "-d": case "--max-dim": maxDim = positive(value(args, ++i, a), a); break;
+                    case "-q": case "--quality": quality = between(value(args, ++i, a), a, 1, 100); break;
+                    case "-m": case "--memory": memoryFraction = fraction(value(args, ++i, a), a); break;
+                    case "-s": case "--strip-only": stripOnly = true; break;
+                    case "-j": case "--jpeg-domain": jpegDomain = true; break;
+                    case "--scratch": scratchDir = Paths.get(value(args, ++i, a)); break;
+                    case "--faces": censorFaces = true; break;
+                    case "--face-budget": faceBudgetMs = positive(value(args, ++i, a), a); break;
+                    case "--sequence": sequence = true; break;
+                    case "--metrics": printMetrics = true; break;
+                    case "-h": case "--help": out.print(USAGE); return 0;
+                    default:
+                        if (a.startsWith("-")) throw new IllegalArgumentException("unknown option " + a);
+                        inputs.addAll(expand(Paths.get(a)));
+                }
+            }
+        } catch (IOException e) {
+            err.println("pixelcloak: " + e.getMessage());
+            return 2;
+        }
+        if (outputDir == null) throw new IllegalArgumentException("missing --output");
+        if (inputs.isEmpty()) throw new IllegalArgumentException("no input images");
+        if (sequence && stripOnly) throw new IllegalArgumentException("--sequence cannot be combined with --strip-only");
+
+        try {
+            Files.createDirectories(outputDir);
+        } catch (IOException e) {
+            err.println("pixelcloak: cannot create " + outputDir + ": " + e.getMessage());
+            return 2;
+        }
+        long scratchBytes = 0;
+        if (scratchDir != null) {
+            try {
+                Files.createDirectories(scratchDir);
+                scratchBytes = Files.getFileStore(scratchDir).getUsableSpace();
+            } catch (IOException e) {
+                err.println("pixelcloak: cannot use " + scratchDir + ": " + e.getMessage());
+                return 2;
+            }
+        }
+
+        Runtime rt = Runtime.getRuntime();
+        long inUse = rt.totalMemory() - rt.freeMemory();
+        MemoryBudget budget = new MemoryBudget((long) ((rt.maxMemory() - inUse) * memoryFraction));
+
+        PipelineMetrics metrics = new PipelineMetrics();
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        int coresPerWorker = Math.max(1, Runtime.getRuntime().availableProcessors() / threads);
+        ResourceGovernor governor = new ResourceGovernor(budget.capacity() / threads, 0, scratchBytes / threads);
+        DetectionScheduler faceScheduler = new DetectionScheduler(1024, 1024, 0.25, faceBudgetMs,
+                coresPerWorker, cancelled, metrics);
+        ImageScrubber scrubber = new ImageScrubber(outputDir, maxDim, governor, quality, jpegDomain,
+                scratchDir, censorFaces ? new SkinToneFaceDetector() : null, faceScheduler, metrics, cancelled);
+
+        Histogram latency = new Histogram();
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong pixels = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+
+        long start = System.nanoTime();
+        if (sequence) {
+            try (ImageScrubber.Sequence burst = scrubber.openSequence()) {
+                for (Path input : inputs) {
+                    long t0 = System.nanoTime();
+                    try {
+                        ImageScrubber.Outcome o = burst.scrub(input);
+                        latency.record(System.nanoTime() - t0);
+                        pixels.addAndGet((long) o.width * o.height);
+                        bytes.addAndGet(o.bytes);
+                        done.incrementAndGet();
+                        report(out, input, o);
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        err.println(input + ": " + e.getMessage());
+                    } catch (OutOfMemoryError oom) {
+                        failed.incrementAndGet();
+                        err.println(input + ": ran out of memory");
+                    }
+                }
+                out.println(String.format(Locale.US, "sequence: %d frames, %d reused, %.2f fps",
+                        burst.stats().frames(), burst.stats().reusedFrames(), burst.stats().framesPerSecond()));
+            }
+        } else {
+            runPool(inputs, threads, stripOnly, scrubber, budget, cancelled, latency, done, failed, pixels, bytes,
+                    out, err);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        out.println(String.format(Locale.US, "processed %d images (%d failed) in %.2f s with %d threads",
+                done.get(), failed.get(), seconds, threads));
+        if (done.get() > 0) {
+            if (stripOnly) {
+                out.println(String.format(Locale.US, "throughput: %.2f images/s, %.2f MB/s",
+                        done.get() / seconds, bytes.get() / 1e6 / seconds));
+            } else {
+                out.println(String.format(Locale.US, "throughput: %.2f images/s, %.2f MP/s",
+                        done.get() / seconds, pixels.get() / 1e6 / seconds));
+            }
+            out.println(String.format(Locale.US, "latency: p50 %.1f ms, p99 %.1f ms",
+                    latency.percentile(50) / 1e6, latency.percentile(99) / 1e6));
+        }
+        if (printMetrics) out.print(metrics.dump());
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private static void runPool(List<Path> inputs, int threads, boolean stripOnly, ImageScrubber scrubber,
+                                MemoryBudget budget, AtomicBoolean cancelled, Histogram latency,
+                                AtomicInteger done, AtomicInteger failed, AtomicLong pixels, AtomicLong bytes,
+                                PrintStream out, PrintStream err) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Path input : inputs) {
+                long estimate = 0;
+                if (!stripOnly) {
+                    try {
+                        int[] dims = ImageScrubber.probe(input);
+                        estimate = scrubber.estimateBytes(dims[0], dims[1]);
+                    } catch (IOException e) {
+                        err.println(input + ": " + e.getMessage());
+                        failed.incrementAndGet();
+                        continue;
+                    }
+                }
+                final boolean strip = stripOnly;
+                final long grant = budget.acquire(estimate);
+                pool.execute(() -> {
+                    long t0 = System.nanoTime();
+                    try {
+                        ImageScrubber.Outcome o = strip ? scrubber.strip(input) : scrubber.scrub(input);
+                        latency.record(System.nanoTime() - t0);
+                        pixels.addAndGet((long) o.width * o.height);
+                        bytes.addAndGet(o.bytes);
+                        done.incrementAndGet();
+                        if (strip) out.println(input + " -> " + o.output.getFileName());
+                        else report(out, input, o);
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        err.println(input + ": " + e.getMessage());
+                    } catch (OutOfMemoryError oom) {
+                        failed.incrementAndGet();
+                        err.println(input + ": ran out of memory");
+                    } finally {
+                        budget.release(grant);
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void report(PrintStream out, Path input, ImageScrubber.Outcome o) {
+        if (!Double.isNaN(o.psnr)) {
+            out.println(String.format(Locale.US, "%s -> %s (PSNR=%.2f dB)", input, o.output.getFileName(), o.psnr));
+        } else if (o.frames > 1) {
+            out.println(String.format(Locale.US, "%s -> %s (SSIM=%.4f, %d frames, %d reused, %.2f fps)",
+                    input, o.output.getFileName(), o.ssim, o.frames, o.reusedFrames, o.fps));
+        } else {
+            out.println(String.format(Locale.US, "%s -> %s (SSIM=%.4f)", input, o.output.getFileName(), o.ssim));
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+        return args[i];
+    }
+
+    private static int positive(String v, String option) {
+        try {
+            int n = Integer.parseInt(v);
+            if (n > 0) return n;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException(option + " expects a positive integer");
+    }
+
+    private static int between(String v, String option, int min, int max) {
+        try {
+            int n = Integer.parseInt(v);
+            if (n >= min && n <= max) return n;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException(option + " expects an integer from " + min + " to " + max);
+    }
+
+    private static double fraction(String v, String option) {
+        try {
+            double f = Double.parseDouble(v);
+            if (f > 0 && f <= 1) return f;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException(option + " expects a value in (0, 1]");
+    }
+
+    private static List<Path> readList(Path list) throws IOException {
+        List<Path> out = new ArrayList<>();
+        for (String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+            String t = line.trim();
+            if (!t.isEmpty() && !t.startsWith("#")) out.add(Paths.get(t));
+        }
+        return out;
+    }
+
+    private static List<Path> expand(Path p) throws IOException {
+        if (!Files.isDirectory(p)) return List.of(p);
+        try (Stream<Path> s = Files.walk(p)) {
+            return s.filter(Files::isRegularFile)
+                    .filter(PixelCloakCli::isImageName)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isImageName(Path p) {
+        String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String ext : EXTENSIONS) if (name.endsWith(ext)) return true;
+        return false;
+    }
+}
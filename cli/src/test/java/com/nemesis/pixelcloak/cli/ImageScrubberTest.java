@@ -0,0 +1,120 @@
+package com.nemesis.pixelcloak.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.nemesis.pixelcloak.engine.DetectionScheduler;
+import com.nemesis.pixelcloak.engine.PipelineMetrics;
+import com.nemesis.pixelcloak.engine.ResourceGovernor;
+import com.nemesis.pixelcloak.engine.SkinToneFaceDetector;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageScrubberTest {
+    static final Color SKIN = new Color(0xE0AD8E);
+    static final Color BACKGROUND = new Color(0x606870);
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void pixelPathBlacksOutFaces() throws IOException {
+        Path in = tmp.getRoot().toPath().resolve("face.png");
+        ImageIO.write(withFace(320, 240, 160, 120, 64), "png", in.toFile());
+
+        ImageScrubber.Outcome o = scrubber(false).scrub(in);
+        BufferedImage out = ImageIO.read(o.output.toFile());
+        assertEquals(320, out.getWidth());
+        assertDark(out, 160, 120, 15, 20);
+        assertTrue("background is left alone", luma(out.getRGB(20, 20)) > 60);
+    }
+
+    @Test
+    public void coefficientPathBlacksOutFaces() throws IOException {
+        Path in = tmp.getRoot().toPath().resolve("face.jpg");
+        ImageIO.write(withFace(320, 240, 100, 140, 64), "jpeg", in.toFile());
+
+        ImageScrubber.Outcome o = scrubber(true).scrub(in);
+        assertFalse("went through the coefficient path", Double.isNaN(o.psnr));
+        assertDark(ImageIO.read(o.output.toFile()), 100, 140, 15, 20);
+    }
+
+    @Test
+    public void everyFrameOfAnAnimationIsCensored() throws IOException {
+        // A small face crossing a still background barely moves the mean luma, so frames
+        // reuse the first one's mask; they must still each get their own face boxes.
+        Path in = tmp.getRoot().toPath().resolve("walk.gif");
+        int[] xs = {60, 100, 140, 180, 220, 260};
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(in.toFile())) {
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            for (int x : xs) writer.writeToSequence(new IIOImage(withFace(320, 240, x, 120, 32), null, null), null);
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+
+        ImageScrubber.Outcome o = scrubber(false).scrub(in);
+        assertEquals(xs.length, o.frames);
+        assertTrue("frames reused earlier work", o.reusedFrames > 0);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream frames = ImageIO.createImageInputStream(o.output.toFile())) {
+            reader.setInput(frames);
+            for (int i = 0; i < xs.length; i++) assertDark(reader.read(i), xs[i], 120, 8, 10);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    ImageScrubber scrubber(boolean jpegDomain) throws IOException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        DetectionScheduler faceScheduler = new DetectionScheduler(1024, 1024, 0.25, 10_000, 1, cancelled, metrics);
+        return new ImageScrubber(tmp.newFolder().toPath(), 512, new ResourceGovernor(1L << 30, 0), 90,
+                jpegDomain, null, new SkinToneFaceDetector(), faceScheduler, metrics, cancelled);
+    }
+
+    /** A plain background with a skin-coloured oval {@code faceW} wide at {@code cx, cy}. */
+    static BufferedImage withFace(int w, int h, int cx, int cy, int faceW) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, w, h);
+        g.setColor(SKIN);
+        int faceH = faceW * 5 / 4;
+        g.fillOval(cx - faceW / 2, cy - faceH / 2, faceW, faceH);
+        g.dispose();
+        return img;
+    }
+
+    static void assertDark(BufferedImage img, int cx, int cy, int rx, int ry) {
+        for (int y = cy - ry; y <= cy + ry; y += 2) {
+            for (int x = cx - rx; x <= cx + rx; x += 2) {
+                int rgb = img.getRGB(x, y);
+                assertTrue("pixel " + x + "," + y + " is " + Integer.toHexString(rgb), luma(rgb) < 24);
+            }
+        }
+    }
+
+    static double luma(int rgb) {
+        return 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+    }
+}
@@ -0,0 +1,628 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pixel-domain cloaking search. Every stage streams over {@link ImagePlane}s one row or one
+ * band of rows at a time, so besides the planes the heap only holds buffers proportional to
+ * the image width. Where the planes live is up to the caller's {@link PlaneAllocator}.
+ */
+public final class CloakEngine {
+    /** Original, working and best RGB planes, plus the grey reference and the saliency mask. */
+    public static final int PLANE_BYTES_PER_PIXEL = (3 + 3 + 3 + 1 + 1) * 4;
+
+    /** Upper bound on bytes held per processed pixel while the search runs with every plane on the heap. */
+    public static final int PEAK_BYTES_PER_PIXEL = PLANE_BYTES_PER_PIXEL;
+
+    private static final int SSIM_KERNEL = 11;
+    private static final float SSIM_SIGMA = 1.5f;
+
+    private final SecureRandom secureRandom;
+    private final AtomicBoolean isCancelled;
+    private final PipelineMetrics metrics;
+
+    public CloakEngine(SecureRandom secureRandom, AtomicBoolean isCancelled, PipelineMetrics metrics) {
+        this.secureRandom = secureRandom;
+        this.isCancelled = isCancelled;
+        this.metrics = metrics;
+    }
+
+    public static long estimatePeakBytes(int w, int h) {
+        return (long) w * h * PEAK_BYTES_PER_PIXEL;
+    }
+
+    private float[] secureUniformArrayFloat(int size) {
+        if (size <= 0) return new float[0];
+        byte[] raw = new byte[8 * size];
+        secureRandom.nextBytes(raw);
+        float[] out = new float[size];
+        ByteBuffer bb = ByteBuffer.wrap(raw);
+        for (int i = 0; i < size; i++) {
+            long v = bb.getLong();
+            double u = (v & 0x7FFFFFFFFFFFFFFFL) / (double) (0x1L << 63);
+            if (u == 0.0) u = Double.MIN_VALUE;
+            out[i] = (float) u;
+        }
+        return out;
+    }
+
+    private double secureUniformFloat(double a, double b) {
+        return secureRandom.nextDouble() * (b - a) + a;
+    }
+
+    private int secureRandInt(int a, int b) {
+        return secureRandom.nextInt((b - a) + 1) + a;
+    }
+
+    private double secureRandomDouble() {
+        return secureRandom.nextDouble();
+    }
+
+    private float[] secureNormalArray(int size, float mean, float std) {
+        if (size <= 0) return new float[0];
+        int pairs = (size + 1) / 2;
+        float[] u1 = secureUniformArrayFloat(pairs);
+        float[] u2 = secureUniformArrayFloat(pairs);
+        float[] z = new float[pairs * 2];
+        for (int i = 0; i < pairs; i++) {
+            double r = Math.sqrt(-2.0 * Math.log(Math.max(u1[i], 1e-12)));
+            double theta = 2.0 * Math.PI * u2[i];
+            z[2 * i] = (float) (r * Math.cos(theta));
+            z[2 * i + 1] = (float) (r * Math.sin(theta));
+        }
+        float[] out = new float[size];
+        System.arraycopy(z, 0, out, 0, size);
+        for (int i = 0; i < size; i++) out[i] = out[i] * std + mean;
+        return out;
+    }
+
+    private int[] securePermutation(int n) {
+        float[] keys = secureUniformArrayFloat(n);
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (i1, i2) -> Float.compare(keys[i1], keys[i2]));
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = order[i];
+        return out;
+    }
+
+    /*
+     * The search stages below return the bytes of the arrays they allocate themselves, summed
+     * from the arrays' lengths, for the stage metrics. Object headers, boxed values and the
+     * random number helpers' own temporaries are not counted.
+     */
+    private long blockPixelShuffle(ImagePlane img, int blockSize, double intensity, ImagePlane mask) {
+        final int w = img.w, h = img.h;
+        float[] band = new float[blockSize * w * 3];
+        float[] maskBand = mask != null ? new float[blockSize * w] : null;
+        int[] indices = new int[blockSize * blockSize];
+        long allocated = 4L * (band.length + indices.length + (maskBand != null ? maskBand.length : 0));
+        for (int y = 0; y < h; y += blockSize) {
+            int by = Math.min(blockSize, h - y);
+            img.read((long) y * w * 3, band, 0, by * w * 3);
+            if (mask != null) mask.read((long) y * w, maskBand, 0, by * w);
+            for (int x = 0; x < w; x += blockSize) {
+                int bx = Math.min(blockSize, w - x);
+                int n = 0;
+                for (int yy = 0; yy < by; yy++) for (int xx = 0; xx < bx; xx++)
+                    indices[n++] = (yy * w + (x + xx)) * 3;
+                double p = intensity;
+                if (mask != null) {
+                    double sum = 0;
+                    for (int yy = 0; yy < by; yy++)
+                        for (int xx = 0; xx < bx; xx++) sum += maskBand[yy * w + (x + xx)];
+                    double mean = (sum / (by * bx)) / 255.0;
+                    if (mean > 0.1) p = intensity + 0.4;
+                }
+                int k = (int) (p * n);
+                if (k <= 1) continue;
+                int[] perm = securePermutation(n);
+
+                float[] keys = secureUniformArrayFloat(k);
+                Integer[] order = new Integer[k];
+                for (int i = 0; i < k; i++) order[i] = i;
+                Arrays.sort(order, (i1, i2) -> Float.compare(keys[i1], keys[i2]));
+                float[] tmp = new float[k * 3];
+                allocated += 4L * (perm.length + keys.length + tmp.length);
+                for (int i = 0; i < k; i++) {
+                    int idx = indices[perm[i]];
+                    tmp[i * 3] = band[idx];
+                    tmp[i * 3 + 1] = band[idx + 1];
+                    tmp[i * 3 + 2] = band[idx + 2];
+                }
+                for (int i = 0; i < k; i++) {
+                    int destPos = indices[perm[order[i]]];
+                    band[destPos] = tmp[i * 3];
+                    band[destPos + 1] = tmp[i * 3 + 1];
+                    band[destPos + 2] = tmp[i * 3 + 2];
+                }
+            }
+            img.write((long) y * w * 3, band, 0, by * w * 3);
+        }
+        return allocated;
+    }
+
+    private long addNoise(ImagePlane img, double sigma, double saltProb) {
+        final int w = img.w, h = img.h;
+        float[] row = new float[img.stride()];
+        long allocated = 4L * row.length;
+        for (int y = 0; y < h; y++) {
+            img.readRow(y, row);
+            if (sigma > 0) {
+                float[] gauss = secureNormalArray(row.length, 0f, (float) sigma);
+                allocated += 4L * gauss.length;
+                for (int i = 0; i < row.length; i++) {
+                    float v = row[i] + gauss[i];
+                    row[i] = Math.max(0f, Math.min(255f, v));
+                }
+            }
+            if (saltProb > 0) {
+                float[] uni = secureUniformArrayFloat(w);
+                allocated += 4L * uni.length;
+                for (int i = 0; i < w; i++) {
+                    if (uni[i] < saltProb) {
+                        int val = secureRandom.nextBoolean() ? 255 : 0;
+                        row[i * 3] = val;
+                        row[i * 3 + 1] = val;
+                        row[i * 3 + 2] = val;
+                    }
+                }
+            }
+            img.writeRow(y, row);
+        }
+        return allocated;
+    }
+
+    private long overlayPatches(ImagePlane img, int patchSize, double density, double strength, ImagePlane mask) {
+        final int w = img.w, h = img.h;
+        int numPatches = Math.max(1, (int) ((double) w * h * density / (patchSize * patchSize) * 8));
+        float[] patch = new float[patchSize * patchSize * 3];
+        float[] row = new float[patchSize * 3];
+        float[] maskRow = new float[patchSize];
+        byte[] raw = new byte[patch.length];
+        byte[] color = new byte[3];
+        long allocated = 4L * (patch.length + row.length + maskRow.length) + raw.length + color.length;
+        for (int i = 0; i < numPatches; i++) {
+            if (isCancelled.get()) break;
+            int x = secureRandInt(0, Math.max(0, w - patchSize));
+            int y = secureRandInt(0, Math.max(0, h - patchSize));
+            int spanW = Math.min(patchSize, w - x);
+            if (mask != null) {
+                double sum = 0;
+                for (int yy = y; yy < Math.min(y + patchSize, h); yy++) {
+                    mask.read((long) yy * w + x, maskRow, 0, spanW);
+                    for (int xx = 0; xx < spanW; xx++) sum += maskRow[xx];
+                }
+                if (sum < (patchSize * patchSize) / 6.0 * 255.0 && secureRandomDouble() > 0.4) continue;
+            }
+            boolean solid = secureRandom.nextBoolean();
+            if (solid) {
+                secureRandom.nextBytes(color);
+                for (int k = 0; k < patch.length; k += 3) {
+                    patch[k] = (color[0] & 0xFF);
+                    patch[k + 1] = (color[1] & 0xFF);
+                    patch[k + 2] = (color[2] & 0xFF);
+                }
+            } else {
+                secureRandom.nextBytes(raw);
+                for (int k = 0; k < raw.length; k++) patch[k] = raw[k] & 0xFF;
+            }
+            double alpha = secureUniformFloat(0.4, 1.0) * strength;
+            for (int yy = 0; yy < patchSize; yy++) {
+                long base = ((long) Math.min(h - 1, y + yy) * w + x) * 3;
+                img.read(base, row, 0, spanW * 3);
+                for (int xx = 0; xx < patchSize; xx++) {
+                    int idx = (Math.min(w - 1, x + xx) - x) * 3;
+                    int pidx = (yy * patchSize + xx) * 3;
+                    for (int c = 0; c < 3; c++) {
+                        row[idx + c] = (float) ((1.0 - alpha) * row[idx + c] + alpha * patch[pidx + c]);
+                    }
+                }
+                img.write(base, row, 0, spanW * 3);
+            }
+        }
+        return allocated;
+    }
+
+    /** Sobel magnitude of {@code gray}, stretched to 0..255. */
+    private static void computeSaliencyMask(ImagePlane gray, ImagePlane mask) {
+        final int w = gray.w, h = gray.h;
+        float[] up = new float[w], mid = new float[w], down = new float[w], out = new float[w];
+
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        for (int y = 0; y < h; y++) {
+            Arrays.fill(out, 0f);
+            if (y >= 1 && y < h - 1) {
+                gray.readRow(y - 1, up);
+                gray.readRow(y, mid);
+                gray.readRow(y + 1, down);
+                for (int x = 1; x < w - 1; x++) {
+                    float gx = -up[x - 1] - 2f * mid[x - 1] - down[x - 1]
+                            + up[x + 1] + 2f * mid[x + 1] + down[x + 1];
+                    float gy = -up[x - 1] - 2f * up[x] - up[x + 1]
+                            + down[x - 1] + 2f * down[x] + down[x + 1];
+                    out[x] = (float) Math.min(255.0, Math.hypot(gx, gy));
+                }
+            }
+            for (int x = 0; x < w; x++) {
+                if (out[x] < min) min = out[x];
+                if (out[x] > max) max = out[x];
+            }
+            mask.writeRow(y, out);
+        }
+
+        if (max > min) {
+            float range = max - min;
+            for (int y = 0; y < h; y++) {
+                mask.readRow(y, out);
+                for (int x = 0; x < w; x++) out[x] = ((out[x] - min) / range) * 255f;
+                mask.writeRow(y, out);
+            }
+        }
+    }
+
+    public static final class Result {
+        /** The best candidate when it lives on the heap; null when it was written to an off-heap plane. */
+        public float[] rgb;
+        public int w, h;
+        public double ssim;
+        /** Perturbation scale of the pass that produced the best candidate. */
+        public double scale;
+        public Result(float[] r, int w, int h, double s) { this.rgb = r; this.w = w; this.h = h; this.ssim = s; }
+    }
+
+    public Result strongPerturbPreserveBitmap(float[] origRgb, int w, int h,
+                                              double strength,
+                                              int levels,
+                                              double targetSsim,
+                                              int maxIters,
+                                              double patchDensity,
+                                              int blockSize,
+                                              int jpegQuality) {
+        return strongPerturbPreserveBitmap(origRgb, w, h, strength, levels, targetSsim, maxIters,
+                patchDensity, blockSize, jpegQuality, null);
+    }
+
+    /**
+     * As above, additionally handing {@code listener} a downsampled copy of each new best
+     * candidate as soon as it is scored, so a caller can show progress before the search ends.
+     */
+    public Result strongPerturbPreserveBitmap(float[] origRgb, int w, int h,
+                                              double strength,
+                                              int levels,
+                                              double targetSsim,
+                                              int maxIters,
+                                              double patchDensity,
+                                              int blockSize,
+                                              int jpegQuality,
+                                              SearchListener listener) {
+        try {
+            return perturb(ImagePlane.wrap(origRgb, w, h, 3), ImagePlane.wrap(new float[w * h * 3], w, h, 3),
+                    PlaneAllocator.heapOnly(), strength, targetSsim, maxIters, patchDensity, blockSize, listener);
+        } catch (IOException e) {
+            // Heap planes never touch the file system.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Searches for the strongest perturbation of {@code orig} whose SSIM against it stays at
+     * or above {@code targetSsim}, and leaves the best candidate in {@code best}. Scratch
+     * planes come from {@code planes} and are wiped before this returns; {@code orig} is
+     * left untouched.
+     */
+    public Result perturb(ImagePlane orig, ImagePlane best, PlaneAllocator planes,
+                          double strength,
+                          double targetSsim,
+                          int maxIters,
+                          double patchDensity,
+                          int blockSize,
+                          SearchListener listener) throws IOException {
+        try (ImagePlane gray = planes.allocate(orig.w, orig.h, 1);
+             ImagePlane mask = planes.allocate(orig.w, orig.h, 1)) {
+            try (StageScope s = metrics.begin(Stage.SALIENCY)) {
+                toGrayscale(orig, gray);
+                computeSaliencyMask(gray, mask);
+                s.addBytes(gray.bytes() + mask.bytes());
+            }
+            return search(orig, best, gray, mask, planes, strength, targetSsim, maxIters, patchDensity, blockSize,
+                    listener);
+        }
+    }
+
+    /** Writes the saliency mask of {@code orig} into the one-channel plane {@code mask}. */
+    public void saliency(ImagePlane orig, ImagePlane mask, PlaneAllocator planes) throws IOException {
+        try (ImagePlane gray = planes.allocate(orig.w, orig.h, 1);
+             StageScope s = metrics.begin(Stage.SALIENCY)) {
+            toGrayscale(orig, gray);
+            computeSaliencyMask(gray, mask);
+            s.addBytes(gray.bytes() + mask.bytes());
+        }
+    }
+
+    /**
+     * As {@link #perturb(ImagePlane, ImagePlane, PlaneAllocator, double, double, int, double,
+     * int, SearchListener)}, but with a saliency mask from {@link #saliency}, possibly of an
+     * earlier, similar frame. The search starts at {@code strength}, so passing the scale a
+     * previous search settled on usually makes this a single pass.
+     */
+    public Result perturb(ImagePlane orig, ImagePlane best, ImagePlane mask, PlaneAllocator planes,
+                          double strength,
+                          double targetSsim,
+                          int maxIters,
+                          double patchDensity,
+                          int blockSize,
+                          SearchListener listener) throws IOException {
+        try (ImagePlane gray = planes.allocate(orig.w, orig.h, 1)) {
+            toGrayscale(orig, gray);
+            return search(orig, best, gray, mask, planes, strength, targetSsim, maxIters, patchDensity, blockSize,
+                    listener);
+        }
+    }
+
+    private Result search(ImagePlane orig, ImagePlane best, ImagePlane gray, ImagePlane mask, PlaneAllocator planes,
+                          double strength,
+                          double targetSsim,
+                          int maxIters,
+                          double patchDensity,
+                          int blockSize,
+                          SearchListener listener) throws IOException {
+        final int w = orig.w, h = orig.h;
+        orig.copyTo(best);
+
+        try (ImagePlane work = planes.allocate(w, h, 3)) {
+            int attempt = 0;
+            double curScale = strength;
+            double bestSsim = -1.0;
+            double bestScale = strength;
+
+            try (StageScope search = metrics.begin(Stage.SEARCH)) {
+                search.addBytes(work.bytes());
+                while (attempt < maxIters && !isCancelled.get()) {
+                    attempt++;
+                    search.setIterations(attempt);
+                    orig.copyTo(work);
+
+                    try (StageScope s = metrics.begin(Stage.BLOCK_SHUFFLE)) {
+                        int bs = Math.max(4, blockSize);
+                        s.addBytes(blockPixelShuffle(work, bs, 0.25 + 0.5 * curScale, mask));
+                    }
+
+                    try (StageScope s = metrics.begin(Stage.PATCH_OVERLAY)) {
+                        s.addBytes(overlayPatches(work, 8, patchDensity * (1 + curScale), 0.35 + 0.7 * curScale, mask));
+                    }
+
+                    try (StageScope s = metrics.begin(Stage.NOISE)) {
+                        s.addBytes(addNoise(work, 6.0 * curScale, 0.0006 * (1 + curScale)));
+                    }
+
+                    try (StageScope s = metrics.begin(Stage.BLEND)) {
+                        s.addBytes(blend(orig, work, 0.15 * curScale));
+                    }
+
+                    try (StageScope s = metrics.begin(Stage.HSV)) {
+                        s.addBytes(jitterHsv(work, curScale));
+                    }
+
+                    double curSsim;
+                    try (StageScope s = metrics.begin(Stage.SSIM)) {
+                        curSsim = ssim(gray, work, s);
+                    }
+                    if (curSsim > bestSsim) {
+                        bestSsim = curSsim;
+                        bestScale = curScale;
+                        work.copyTo(best);
+                        if (listener != null) {
+                            try (StageScope s = metrics.begin(Stage.PREVIEW)) {
+                                PreviewFrame frame = PreviewFrame.of(best, listener.previewMaxDim());
+                                s.addBytes((long) frame.argb.length * 4);
+                                listener.onBestCandidate(frame, attempt, curSsim);
+                            }
+                        }
+                    }
+                    if (curSsim >= targetSsim || curScale <= 0.02 || isCancelled.get()) {
+                        break;
+                    }
+                    curScale *= 0.72;
+                }
+            }
+
+            Result result = new Result(best.array(), w, h, bestSsim);
+            result.scale = bestScale;
+            return result;
+        }
+    }
+
+    private static long blend(ImagePlane orig, ImagePlane work, double amount) {
+        float[] o = new float[orig.stride()];
+        float[] l = new float[orig.stride()];
+        for (int y = 0; y < orig.h; y++) {
+            orig.readRow(y, o);
+            work.readRow(y, l);
+            for (int k = 0; k < l.length; k++) {
+                l[k] = (float) ((1.0 - amount) * o[k] + amount * l[k]);
+            }
+            work.writeRow(y, l);
+        }
+        return 4L * (o.length + l.length);
+    }
+
+    private long jitterHsv(ImagePlane img, double scale) {
+        float[] row = new float[img.stride()];
+        for (int y = 0; y < img.h && !isCancelled.get(); y++) {
+            img.readRow(y, row);
+            for (int idx = 0; idx < row.length; idx += 3) {
+                float[] hsv = rgbToHsv(row[idx], row[idx + 1], row[idx + 2]);
+                double sMult = 1.0 + (secureUniformFloat(-0.03, 0.03) * scale);
+                double vMult = 1.0 + (secureUniformFloat(-0.02, 0.02) * scale);
+                hsv[1] = (float) Math.max(0.0, Math.min(1.0, hsv[1] * sMult));
+                hsv[2] = (float) Math.max(0.0, Math.min(255.0, hsv[2] * vMult));
+                int[] rgb2 = hsvToRgbInt(hsv);
+                row[idx] = rgb2[0];
+                row[idx + 1] = rgb2[1];
+                row[idx + 2] = rgb2[2];
+            }
+            img.writeRow(y, row);
+        }
+        return 4L * row.length;
+    }
+
+    /**
+     * Mean SSIM between a grey reference and the luma of an RGB candidate, with an 11-tap
+     * Gaussian window clamped at the edges. Horizontally blurred moments are kept for just
+     * the rows the vertical pass needs. The scratch it allocates is added to {@code scope}.
+     */
+    static double ssim(ImagePlane aGray, ImagePlane bRgb, StageScope scope) {
+        final int w = aGray.w, h = aGray.h;
+        final int half = SSIM_KERNEL / 2;
+        float[] kernel = gaussianKernel(SSIM_KERNEL, SSIM_SIGMA);
+
+        float[][][] ring = new float[5][SSIM_KERNEL][w];
+        int[] ringRow = new int[SSIM_KERNEL];
+        Arrays.fill(ringRow, -1);
+        float[] a = new float[w], b = new float[w], rgb = new float[w * 3], prod = new float[w];
+        float[][] mom = new float[5][w];
+        scope.addBytes(4L * (kernel.length + 5L * SSIM_KERNEL * w + ringRow.length + a.length + b.length
+                + rgb.length + prod.length + 5L * w));
+
+        double C1 = Math.pow(0.01 * 255.0, 2);
+        double C2 = Math.pow(0.03 * 255.0, 2);
+        double meanSsim = 0.0;
+
+        for (int y = 0; y < h; y++) {
+            for (int k = -half; k <= half; k++) {
+                int r = Math.min(h - 1, Math.max(0, y + k));
+                int slot = r % SSIM_KERNEL;
+                if (ringRow[slot] == r) continue;
+                aGray.readRow(r, a);
+                bRgb.readRow(r, rgb);
+                for (int x = 0; x < w; x++) {
+                    b[x] = 0.299f * rgb[x * 3] + 0.587f * rgb[x * 3 + 1] + 0.114f * rgb[x * 3 + 2];
+                }
+                blurRow(a, ring[0][slot], kernel);
+                blurRow(b, ring[1][slot], kernel);
+                for (int x = 0; x < w; x++) prod[x] = a[x] * a[x];
+                blurRow(prod, ring[2][slot], kernel);
+                for (int x = 0; x < w; x++) prod[x] = b[x] * b[x];
+                blurRow(prod, ring[3][slot], kernel);
+                for (int x = 0; x < w; x++) prod[x] = a[x] * b[x];
+                blurRow(prod, ring[4][slot], kernel);
+                ringRow[slot] = r;
+            }
+
+            for (int q = 0; q < 5; q++) {
+                float[] dst = mom[q];
+                for (int x = 0; x < w; x++) {
+                    float v = 0f;
+                    for (int k = -half; k <= half; k++) {
+                        int r = Math.min(h - 1, Math.max(0, y + k));
+                        v += ring[q][r % SSIM_KERNEL][x] * kernel[k + half];
+                    }
+                    dst[x] = v;
+                }
+            }
+
+            for (int x = 0; x < w; x++) {
+                float mu1 = mom[0][x], mu2 = mom[1][x];
+                float sigma1Sq = mom[2][x] - mu1 * mu1;
+                float sigma2Sq = mom[3][x] - mu2 * mu2;
+                float sigma12 = mom[4][x] - mu1 * mu2;
+                double top = (2.0 * mu1 * mu2 + C1) * (2.0 * sigma12 + C2);
+                double bot = (mu1 * mu1 + mu2 * mu2 + C1) * (sigma1Sq + sigma2Sq + C2);
+                double v = 1.0;
+                if (bot != 0) v = top / bot;
+                meanSsim += v;
+            }
+        }
+        return meanSsim / ((double) w * h);
+    }
+
+    private static float[] gaussianKernel(int ksize, float sigma) {
+        int half = ksize / 2;
+        float[] kernel = new float[ksize];
+        float sum = 0f;
+        for (int i = 0; i < ksize; i++) {
+            int x = i - half;
+            kernel[i] = (float) Math.exp(-(x * x) / (2.0 * sigma * sigma));
+            sum += kernel[i];
+        }
+        for (int i = 0; i < ksize; i++) kernel[i] /= sum;
+        return kernel;
+    }
+
+    private static void blurRow(float[] src, float[] dst, float[] kernel) {
+        final int w = src.length, half = kernel.length / 2;
+        for (int x = 0; x < w; x++) {
+            float v = 0f;
+            for (int k = -half; k <= half; k++) {
+                int xx = Math.min(w - 1, Math.max(0, x + k));
+                v += src[xx] * kernel[k + half];
+            }
+            dst[x] = v;
+        }
+    }
+
+    private static float[] rgbToHsv(float r, float g, float b) {
+        float rf = r / 255f, gf = g / 255f, bf = b / 255f;
+        float max = Math.max(rf, Math.max(gf, bf));
+        float min = Math.min(rf, Math.min(gf, bf));
+        float h = 0f, s = 0f, v = max * 255f;
+        float d = max - min;
+        if (max != 0) s = d / max;
+        if (max == min) h = 0f;
+        else {
+            if (max == rf) h = (gf - bf) / d + (gf < bf ? 6f : 0f);
+            else if (max == gf) h = (bf - rf) / d + 2f;
+            else h = (rf - gf) / d + 4f;
+            h *= 60f;
+        }
+        return new float[]{h, s, v};
+    }
+
+    private static int[] hsvToRgbInt(float[] hsv) {
+        float h = hsv[0], s = hsv[1], v = hsv[2] / 255f;
+        int r, g, b;
+        if (s == 0) {
+            int val = Math.round(v * 255);
+            r = g = b = val;
+        } else {
+            h /= 60f;
+            int i = (int) Math.floor(h);
+            float f = h - i;
+            float p = v * (1 - s);
+            float q = v * (1 - s * f);
+            float t = v * (1 - s * (1 - f));
+            float rf, gf, bf;
+            switch (i) {
+                case 0: rf = v; gf = t; bf = p; break;
+                case 1: rf = q; gf = v; bf = p; break;
+                case 2: rf = p; gf = v; bf = t; break;
+                case 3: rf = p; gf = q; bf = v; break;
+                case 4: rf = t; gf = p; bf = v; break;
+                default: rf = v; gf = p; bf = q; break;
+            }
+            r = Math.round(rf * 255); g = Math.round(gf * 255); b = Math.round(bf * 255);
+        }
+        return new int[]{r, g, b};
+    }
+
+    private static void toGrayscale(ImagePlane rgb, ImagePlane gray) {
+        float[] in = new float[rgb.stride()];
+        float[] out = new float[gray.w];
+        for (int y = 0; y < rgb.h; y++) {
+            rgb.readRow(y, in);
+            for (int i = 0; i < out.length; i++) {
+                float r = in[i * 3];
+                float gg = in[i * 3 + 1];
+                float b = in[i * 3 + 2];
+                out[i] = (0.299f * r + 0.587f * gg + 0.114f * b);
+            }
+            gray.writeRow(y, out);
+        }
+    }
+}
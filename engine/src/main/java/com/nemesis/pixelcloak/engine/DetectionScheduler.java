@@ -0,0 +1,265 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds faces in a large image without running the detector on every full-resolution pixel.
+ * A whole-frame pass at {@code coarseDim} always runs first. When that pass saw the image
+ * reduced, overlapping tiles follow at twice the resolution per level, up to the native
+ * one, so a tile sees faces the coarse pass was too blurry for. Tiles are skipped where
+ * they are not needed: mostly inside a face already found, or flat enough, like sky or a
+ * wall, that no face can be in them. The rest run in parallel, coarsest level first, and
+ * any not started when the time budget runs out are dropped. Boxes from every pass are
+ * merged with {@link #suppress}.
+ *
+ * <p>All boxes are {left, top, right, bottom} in the upright full-resolution image.
+ */
+public final class DetectionScheduler {
+    /** Runs a {@link FaceBoxDetector} on part of an image, fetching only that part's pixels. */
+    public interface RegionDetector {
+        /**
+         * Faces inside {@code region} of the upright full-resolution image, with the region
+         * viewed reduced to at most {@code maxDim} pixels on its long side. Returned boxes are
+         * in full-resolution coordinates. Called from several threads at once.
+         */
+        List<int[]> detect(int[] region, int maxDim) throws Exception;
+
+        /**
+         * Whether {@code region} is too uniform to hold a face, judged from whatever low
+         * resolution copy is at hand (see {@link #isFlat(int[], int, int)}). Also called
+         * from several threads at once.
+         */
+        default boolean isFlat(int[] region) throws Exception {
+            return false;
+        }
+    }
+
+    /** Smallest face, as a fraction of the detected image's long side, a pass reliably finds. */
+    public static final double MIN_FACE_FRACTION = 0.1;
+    /** Long side of the thumbnails {@link #isFlat(int[], int, int)} expects. */
+    public static final int FLAT_SAMPLE_DIM = 64;
+    /**
+     * Luma standard deviation below which a tile counts as flat. A face covering 1% of a
+     * tile with 50 levels of contrast to its surroundings already gives about 5.
+     */
+    private static final double FLAT_SPREAD = 3.0;
+    /** Share of a tile inside found faces beyond which it isn't scanned again. */
+    private static final double COVERED = 0.5;
+    private static final double SUPPRESS_IOU = 0.3;
+    /** A box mostly inside another is the same face cut by a tile edge. */
+    private static final double SUPPRESS_CONTAINED = 0.6;
+    /** How long {@link #detect} waits for tiles still running once it gives up on them. */
+    private static final long TILE_DRAIN_MILLIS = 5_000;
+
+    private final int coarseDim;
+    private final int tileDim;
+    private final double overlap;
+    private final long budgetMillis;
+    private final int threads;
+    private final AtomicBoolean cancelled;
+    private final PipelineMetrics metrics;
+
+    /**
+     * {@code overlap} is the fraction of a tile shared with its neighbour and should exceed
+     * the size of the largest face a tile is there to find, {@code 2 * MIN_FACE_FRACTION}.
+     * {@code budgetMillis} bounds the tile passes only; the coarse pass always completes.
+     */
+    public DetectionScheduler(int coarseDim, int tileDim, double overlap, long budgetMillis, int threads,
+                              AtomicBoolean cancelled, PipelineMetrics metrics) {
+        this.coarseDim = coarseDim;
+        this.tileDim = tileDim;
+        this.overlap = Math.max(0, Math.min(0.5, overlap));
+        this.budgetMillis = Math.max(0, budgetMillis);
+        this.threads = Math.max(1, threads);
+        this.cancelled = cancelled;
+        this.metrics = metrics;
+    }
+
+    public List<int[]> detect(int width, int height, RegionDetector detector) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        List<int[]> found = new ArrayList<>();
+        metrics.time(Stage.FACE_DETECTION,
+                () -> found.addAll(detector.detect(new int[]{0, 0, width, height}, coarseDim)));
+        if (cancelled.get() || Math.max(width, height) <= coarseDim) return suppress(found);
+
+        List<int[]> tiles = plan(width, height, coarseDim, tileDim, overlap, found);
+        if (tiles.isEmpty()) return suppress(found);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tiles.size()));
+        List<Future<List<int[]>>> pending = new ArrayList<>(tiles.size());
+        try {
+            for (int[] tile : tiles) {
+                pending.add(pool.submit(() -> {
+                    if (cancelled.get() || System.nanoTime() > deadline) return Collections.<int[]>emptyList();
+                    try (StageScope s = metrics.begin(Stage.FACE_TILES)) {
+                        int[] region = {tile[0], tile[1], tile[2], tile[3]};
+                        if (detector.isFlat(region)) {
+                            s.setIterations(0);
+                            return Collections.<int[]>emptyList();
+                        }
+                        return detector.detect(region, tileDim);
+                    }
+                }));
+            }
+            for (Future<List<int[]>> f : pending) {
+                long left = deadline - System.nanoTime();
+                try {
+                    found.addAll(f.get(Math.max(0, left), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException | CancellationException e) {
+                    f.cancel(true);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) throw (Exception) cause;
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            // Tiles already running use the caller's detector, which it may close once this
+            // returns. Tiles not yet started never run after shutdownNow.
+            pool.awaitTermination(TILE_DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return suppress(found);
+    }
+
+    /**
+     * Overlapping tiles for every level between the coarse pass and native resolution,
+     * coarsest first, leaving out tiles mostly covered by faces in {@code found}. Each
+     * tile's long side is at most {@code tileDim} pixels once reduced to its level.
+     */
+    static List<int[]> plan(int width, int height, int coarseDim, int tileDim, double overlap, List<int[]> found) {
+        List<int[]> tiles = new ArrayList<>();
+        int longSide = Math.max(width, height);
+        double scale = (double) coarseDim / longSide;
+        while (scale < 1) {
+            scale = Math.min(1, scale * 2);
+            int side = (int) Math.ceil(tileDim / scale);
+            int step = Math.max(1, (int) (side * (1 - overlap)));
+            for (int top : starts(height, side, step)) {
+                for (int left : starts(width, side, step)) {
+                    int[] t = {left, top, Math.min(width, left + side), Math.min(height, top + side)};
+                    if (coveredShare(t, found) < COVERED) tiles.add(t);
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /** Tile origins along an axis of {@code length}, the last one flush with the end. */
+    private static List<Integer> starts(int length, int side, int step) {
+        List<Integer> out = new ArrayList<>();
+        if (side >= length) {
+            out.add(0);
+            return out;
+        }
+        for (int at = 0; ; at += step) {
+            if (at + side >= length) {
+                out.add(length - side);
+                return out;
+            }
+            out.add(at);
+        }
+    }
+
+    /** Share of {@code t} inside any of {@code boxes}, counting overlaps between them once per box. */
+    private static double coveredShare(int[] t, List<int[]> boxes) {
+        long inside = 0;
+        for (int[] b : boxes) inside += intersection(t, b);
+        return (double) inside / area(t);
+    }
+
+    /**
+     * Whether a packed-ARGB thumbnail, ideally about {@link #FLAT_SAMPLE_DIM} on its long
+     * side, is too uniform to contain a face.
+     */
+    public static boolean isFlat(int[] argb, int w, int h) {
+        int n = w * h;
+        if (n == 0) return true;
+        double sum = 0, sumSq = 0;
+        for (int i = 0; i < n; i++) {
+            int c = argb[i];
+            double y = 0.299 * ((c >> 16) & 0xFF) + 0.587 * ((c >> 8) & 0xFF) + 0.114 * (c & 0xFF);
+            sum += y;
+            sumSq += y * y;
+        }
+        double mean = sum / n;
+        return Math.sqrt(Math.max(0, sumSq / n - mean * mean)) < FLAT_SPREAD;
+    }
+
+    /**
+     * Maps boxes a {@link FaceBoxDetector} found on {@code region}, viewed reduced to
+     * {@code viewW} by {@code viewH}, back to full-resolution coordinates, rounding outward.
+     */
+    public static List<int[]> toRegion(List<int[]> boxes, int[] region, int viewW, int viewH) {
+        double sx = (double) (region[2] - region[0]) / viewW;
+        double sy = (double) (region[3] - region[1]) / viewH;
+        List<int[]> out = new ArrayList<>(boxes.size());
+        for (int[] b : boxes) {
+            out.add(new int[]{
+                    Math.max(region[0], region[0] + (int) Math.floor(b[0] * sx)),
+                    Math.max(region[1], region[1] + (int) Math.floor(b[1] * sy)),
+                    Math.min(region[2], region[0] + (int) Math.ceil(b[2] * sx)),
+                    Math.min(region[3], region[1] + (int) Math.ceil(b[3] * sy))
+            });
+        }
+        return out;
+    }
+
+    /**
+     * Greedy non-max suppression, largest box first since detectors here report no score.
+     * A box that overlaps a kept one by more than the IoU threshold, or lies mostly inside
+     * it, is dropped after widening the kept box to cover both: for censoring, a merged box
+     * must not leave part of either detection exposed.
+     */
+    public static List<int[]> suppress(List<int[]> boxes) {
+        List<int[]> sorted = new ArrayList<>(boxes.size());
+        for (int[] b : boxes) {
+            if (b[2] > b[0] && b[3] > b[1]) sorted.add(b.clone());
+        }
+        sorted.sort((a, b) -> Long.compare(area(b), area(a)));
+
+        List<int[]> kept = new ArrayList<>();
+        for (int[] b : sorted) {
+            int[] into = null;
+            for (int[] k : kept) {
+                long inter = intersection(k, b);
+                if (inter == 0) continue;
+                double iou = (double) inter / (area(k) + area(b) - inter);
+                double contained = (double) inter / Math.min(area(k), area(b));
+                if (iou > SUPPRESS_IOU || contained > SUPPRESS_CONTAINED) {
+                    into = k;
+                    break;
+                }
+            }
+            if (into == null) {
+                kept.add(b);
+            } else {
+                into[0] = Math.min(into[0], b[0]);
+                into[1] = Math.min(into[1], b[1]);
+                into[2] = Math.max(into[2], b[2]);
+                into[3] = Math.max(into[3], b[3]);
+            }
+        }
+        return kept;
+    }
+
+    private static long area(int[] b) {
+        return (long) (b[2] - b[0]) * (b[3] - b[1]);
+    }
+
+    private static long intersection(int[] a, int[] b) {
+        long w = Math.min(a[2], b[2]) - Math.max(a[0], b[0]);
+        long h = Math.min(a[3], b[3]) - Math.max(a[1], b[1]);
+        return w > 0 && h > 0 ? w * h : 0;
+    }
+}
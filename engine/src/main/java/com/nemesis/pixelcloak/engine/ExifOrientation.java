@@ -0,0 +1,137 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the EXIF orientation tag from a JPEG header without decoding the image.
+ */
+public final class ExifOrientation {
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    private ExifOrientation() {}
+
+    public static int readDegrees(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        if (din.readUnsignedShort() != 0xFFD8) return 0;
+        while (true) {
+            int marker = din.readUnsignedByte();
+            if (marker != 0xFF) return 0;
+            int code = din.readUnsignedByte();
+            while (code == 0xFF) code = din.readUnsignedByte();
+            if (code == 0xDA || code == 0xD9) return 0;
+            if (code >= 0xD0 && code <= 0xD7) continue;
+            int len = din.readUnsignedShort() - 2;
+            if (len < 0) return 0;
+            if (code == 0xE1) {
+                byte[] payload = new byte[len];
+                din.readFully(payload);
+                int deg = degreesFromApp1(payload);
+                if (deg >= 0) return deg;
+            } else {
+                skipFully(din, len);
+            }
+        }
+    }
+
+    /** Returns the rotation encoded in an APP1 payload, or -1 when it is not an EXIF block. */
+    public static int degreesFromApp1(byte[] p) {
+        int value = orientationValueFromApp1(p);
+        if (value < 0) return -1;
+        return degreesForValue(value);
+    }
+
+    public static int orientationValueFromApp1(byte[] p) {
+        if (p.length < 14 || p[0] != 'E' || p[1] != 'x' || p[2] != 'i' || p[3] != 'f' || p[4] != 0 || p[5] != 0) {
+            return -1;
+        }
+        return orientationValueFromTiff(p, 6);
+    }
+
+    /**
+     * The orientation value in a bare TIFF block starting at {@code tiff}, as PNG's eXIf and
+     * WebP's EXIF chunks hold it: 1 when the tag is absent, -1 when it is not TIFF at all.
+     */
+    public static int orientationValueFromTiff(byte[] p, int tiff) {
+        if (p.length < tiff + 8) return -1;
+        boolean le;
+        if (p[tiff] == 'I' && p[tiff + 1] == 'I') le = true;
+        else if (p[tiff] == 'M' && p[tiff + 1] == 'M') le = false;
+        else return -1;
+
+        long ifd = u32(p, tiff + 4, le);
+        int pos = tiff + (int) ifd;
+        if (ifd < 8 || ifd > p.length - tiff - 2) return 1;
+        int entries = u16(p, pos, le);
+        pos += 2;
+        for (int i = 0; i < entries && pos + 12 <= p.length; i++, pos += 12) {
+            if (u16(p, pos, le) == TAG_ORIENTATION) {
+                return u16(p, pos + 8, le);
+            }
+        }
+        return 1;
+    }
+
+    public static int degreesForValue(int value) {
+        switch (value) {
+            case 6: return 90;
+            case 3: return 180;
+            case 8: return 270;
+            default: return 0;
+        }
+    }
+
+    public static int valueForDegrees(int degrees) {
+        switch (Orientation.normalize(degrees)) {
+            case 90: return 6;
+            case 180: return 3;
+            case 270: return 8;
+            default: return 1;
+        }
+    }
+
+    /** An APP1 payload holding nothing but the orientation tag. */
+    public static byte[] minimalApp1(int value) {
+        byte[] tiff = minimalTiff(value);
+        byte[] p = new byte[6 + tiff.length];
+        p[0] = 'E';
+        p[1] = 'x';
+        p[2] = 'i';
+        p[3] = 'f';
+        System.arraycopy(tiff, 0, p, 6, tiff.length);
+        return p;
+    }
+
+    /** A TIFF block holding nothing but the orientation tag, for PNG eXIf and WebP EXIF chunks. */
+    public static byte[] minimalTiff(int value) {
+        return new byte[]{
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) value, 0, 0,
+                0, 0, 0, 0
+        };
+    }
+
+    private static int u16(byte[] p, int off, boolean le) {
+        int a = p[off] & 0xFF, b = p[off + 1] & 0xFF;
+        return le ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static long u32(byte[] p, int off, boolean le) {
+        long a = u16(p, off, le), b = u16(p, off + 2, le);
+        return le ? (b << 16) | a : (a << 16) | b;
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int s = (int) in.skip(n);
+            if (s <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                s = 1;
+            }
+            n -= s;
+        }
+    }
+}
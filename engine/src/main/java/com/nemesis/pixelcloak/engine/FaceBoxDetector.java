@@ -0,0 +1,18 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.util.List;
+
+/**
+ * Finds faces in a packed-ARGB image. Implementations must allow {@link #detect} from
+ * several threads at once, since {@link DetectionScheduler} runs tiles in parallel.
+ */
+public interface FaceBoxDetector extends AutoCloseable {
+    /**
+     * Faces in the {@code w} by {@code h} image {@code argb} when displayed rotated
+     * clockwise by {@code rotation}, as {left, top, right, bottom} boxes in the rotated view.
+     */
+    List<int[]> detect(int[] argb, int w, int h, int rotation) throws Exception;
+
+    @Override
+    default void close() {}
+}
@@ -0,0 +1,16 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+public final class FileNames {
+    private FileNames() {}
+
+    public static String randomNumeric(SecureRandom random, String extension) {
+        byte[] bytes = new byte[12];
+        random.nextBytes(bytes);
+        BigInteger bi = new BigInteger(1, bytes);
+
+        return bi.toString() + "." + extension;
+    }
+}
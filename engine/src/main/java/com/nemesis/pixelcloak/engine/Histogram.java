@@ -0,0 +1,81 @@
+package com.nemesis.pixelcloak.engine;
+
+/**
+ * Log-linear histogram: every power of two is split into {@link #SUB_BUCKETS}
+ * linear buckets, so recorded values keep roughly 12% relative precision.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] buckets = new long[64 * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public synchronized void record(long value) {
+        if (value < 0) value = 0;
+        buckets[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized long sum() {
+        return sum;
+    }
+
+    public synchronized long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long max() {
+        return count == 0 ? 0 : max;
+    }
+
+    public synchronized double mean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    public synchronized long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(Math.max(0.0, Math.min(100.0, p)) / 100.0 * count);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return Math.min(max, Math.max(min, upperBound(i)));
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        java.util.Arrays.fill(buckets, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    private static int bucketOf(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long base = 1L << exp;
+        long step = base >>> SUB_BITS;
+        return base + (sub + 1) * step - 1;
+    }
+}
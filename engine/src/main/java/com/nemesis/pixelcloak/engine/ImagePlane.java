@@ -0,0 +1,268 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A {@code w} by {@code h} plane of {@code channels} interleaved floats, addressed by element
+ * index {@code (y * w + x) * channels + c}. Storage is a heap array, direct memory, or a
+ * memory-mapped scratch file, so a plane can be far larger than the Java heap allows.
+ *
+ * <p>Planes hold private image data: {@link #close()} overwrites every element with zero
+ * before the storage is released, and a scratch file is truncated and deleted as well. A
+ * plane must not be touched after it is closed, though closing it again does nothing.
+ * Planes are not thread-safe.
+ */
+public abstract class ImagePlane implements AutoCloseable {
+    public final int w, h, channels;
+
+    private PlaneAllocator owner;
+    private boolean closed;
+
+    ImagePlane(int w, int h, int channels) {
+        this.w = w;
+        this.h = h;
+        this.channels = channels;
+    }
+
+    /** Wraps an existing heap array without copying; closing it zeroes {@code data}. */
+    public static ImagePlane wrap(float[] data, int w, int h, int channels) {
+        if (data.length < (long) w * h * channels) throw new IllegalArgumentException("Array smaller than plane");
+        return new Heap(data, w, h, channels);
+    }
+
+    public final long length() {
+        return (long) w * h * channels;
+    }
+
+    public final long bytes() {
+        return length() * 4;
+    }
+
+    /** Elements in one row. */
+    public final int stride() {
+        return w * channels;
+    }
+
+    public abstract float get(long index);
+
+    public abstract void set(long index, float v);
+
+    public abstract void read(long index, float[] dst, int off, int len);
+
+    public abstract void write(long index, float[] src, int off, int len);
+
+    /** The backing array of a heap plane, or null for off-heap storage. */
+    public float[] array() {
+        return null;
+    }
+
+    public final void readRow(int y, float[] dst) {
+        read((long) y * stride(), dst, 0, stride());
+    }
+
+    public final void writeRow(int y, float[] src) {
+        write((long) y * stride(), src, 0, stride());
+    }
+
+    /** Copies this plane into {@code dst}, which must have the same shape. */
+    public final void copyTo(ImagePlane dst) {
+        if (dst.w != w || dst.h != h || dst.channels != channels) throw new IllegalArgumentException("Shape mismatch");
+        float[] row = new float[stride()];
+        for (int y = 0; y < h; y++) {
+            readRow(y, row);
+            dst.writeRow(y, row);
+        }
+    }
+
+    /** Overwrites every element with zero. */
+    public void wipe() {
+        float[] zero = new float[stride()];
+        for (int y = 0; y < h; y++) writeRow(y, zero);
+    }
+
+    @Override
+    public void close() {
+        // A second wipe would write to a mapping whose file has already been truncated.
+        if (closed) return;
+        closed = true;
+        wipe();
+        release();
+        if (owner != null) owner.released(this);
+        owner = null;
+    }
+
+    void ownedBy(PlaneAllocator allocator) {
+        this.owner = allocator;
+    }
+
+    void release() {}
+
+    static final class Heap extends ImagePlane {
+        private final float[] data;
+
+        Heap(float[] data, int w, int h, int channels) {
+            super(w, h, channels);
+            this.data = data;
+        }
+
+        @Override
+        public float get(long index) {
+            return data[(int) index];
+        }
+
+        @Override
+        public void set(long index, float v) {
+            data[(int) index] = v;
+        }
+
+        @Override
+        public void read(long index, float[] dst, int off, int len) {
+            System.arraycopy(data, (int) index, dst, off, len);
+        }
+
+        @Override
+        public void write(long index, float[] src, int off, int len) {
+            System.arraycopy(src, off, data, (int) index, len);
+        }
+
+        @Override
+        public float[] array() {
+            return data;
+        }
+
+        @Override
+        public void wipe() {
+            Arrays.fill(data, 0f);
+        }
+    }
+
+    /**
+     * Direct or mapped storage, split into segments because a single NIO buffer cannot
+     * exceed 2 GB.
+     */
+    static final class Buffers extends ImagePlane {
+        private static final int SEGMENT_SHIFT = 28;
+        private static final int SEGMENT_FLOATS = 1 << SEGMENT_SHIFT;
+        private static final int SEGMENT_MASK = SEGMENT_FLOATS - 1;
+
+        private final ByteBuffer[] raw;
+        private final FloatBuffer[] segments;
+        private final File file;
+        private RandomAccessFile channelOwner;
+
+        private Buffers(int w, int h, int channels, ByteBuffer[] raw, File file, RandomAccessFile channelOwner) {
+            super(w, h, channels);
+            this.raw = raw;
+            this.segments = new FloatBuffer[raw.length];
+            for (int i = 0; i < raw.length; i++) segments[i] = raw[i].order(ByteOrder.nativeOrder()).asFloatBuffer();
+            this.file = file;
+            this.channelOwner = channelOwner;
+        }
+
+        static Buffers direct(int w, int h, int channels) {
+            long n = (long) w * h * channels;
+            ByteBuffer[] raw = new ByteBuffer[segmentCount(n)];
+            for (int i = 0; i < raw.length; i++) raw[i] = ByteBuffer.allocateDirect(segmentFloats(n, i) * 4);
+            return new Buffers(w, h, channels, raw, null, null);
+        }
+
+        static Buffers mapped(File dir, int w, int h, int channels) throws IOException {
+            long n = (long) w * h * channels;
+            File file = File.createTempFile("plane", ".scratch", dir);
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                raf.setLength(n * 4);
+                FileChannel ch = raf.getChannel();
+                ByteBuffer[] raw = new ByteBuffer[segmentCount(n)];
+                for (int i = 0; i < raw.length; i++) {
+                    raw[i] = ch.map(FileChannel.MapMode.READ_WRITE, ((long) i << SEGMENT_SHIFT) * 4, segmentFloats(n, i) * 4L);
+                }
+                return new Buffers(w, h, channels, raw, file, raf);
+            } catch (IOException | RuntimeException e) {
+                if (raf != null) try { raf.close(); } catch (IOException ignore) {}
+                file.delete();
+                throw e;
+            }
+        }
+
+        private static int segmentCount(long n) {
+            return (int) Math.max(1, (n + SEGMENT_FLOATS - 1) >>> SEGMENT_SHIFT);
+        }
+
+        private static int segmentFloats(long n, int i) {
+            return (int) Math.min(SEGMENT_FLOATS, n - ((long) i << SEGMENT_SHIFT));
+        }
+
+        boolean isMapped() {
+            return file != null;
+        }
+
+        @Override
+        public float get(long index) {
+            return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+        }
+
+        @Override
+        public void set(long index, float v) {
+            segments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), v);
+        }
+
+        @Override
+        public void read(long index, float[] dst, int off, int len) {
+            while (len > 0) {
+                FloatBuffer seg = segments[(int) (index >>> SEGMENT_SHIFT)];
+                int at = (int) (index & SEGMENT_MASK);
+                int n = Math.min(len, SEGMENT_FLOATS - at);
+                seg.position(at);
+                seg.get(dst, off, n);
+                index += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void write(long index, float[] src, int off, int len) {
+            while (len > 0) {
+                FloatBuffer seg = segments[(int) (index >>> SEGMENT_SHIFT)];
+                int at = (int) (index & SEGMENT_MASK);
+                int n = Math.min(len, SEGMENT_FLOATS - at);
+                seg.position(at);
+                seg.put(src, off, n);
+                index += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void wipe() {
+            super.wipe();
+            for (ByteBuffer b : raw) {
+                if (b instanceof MappedByteBuffer) ((MappedByteBuffer) b).force();
+            }
+        }
+
+        @Override
+        void release() {
+            if (channelOwner == null) return;
+            try {
+                channelOwner.setLength(0);
+                channelOwner.close();
+            } catch (IOException ignore) {
+                // Already zeroed; deleting below is all that is left to do.
+            }
+            channelOwner = null;
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Removes metadata from JPEG, PNG and WebP files without decoding them. Image data is
+ * copied through byte for byte using two fixed-size buffers, so the cost is one read and
+ * one write of the file regardless of resolution. Not thread-safe; use one per worker.
+ */
+public final class MetadataStripper {
+    public enum Format {
+        JPEG("jpg", "image/jpeg"),
+        PNG("png", "image/png"),
+        WEBP("webp", "image/webp");
+
+        public final String extension;
+        public final String mimeType;
+
+        Format(String extension, String mimeType) {
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+    }
+
+    public static final class Result {
+        public final Format format;
+        public final long bytesIn;
+        public final long bytesOut;
+
+        Result(Format format, long bytesIn, long bytesOut) {
+            this.format = format;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+        }
+    }
+
+    /** Pass as {@code orientationDegrees} to carry over the source's own EXIF orientation. */
+    public static final int KEEP_SOURCE_ORIENTATION = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int VP8X_ALPHA = 0x10;
+    private static final int VP8X_EXIF = 0x08;
+    private static final int VP8X_XMP = 0x04;
+
+    private final ByteBuffer inBuf = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer outBuf = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] segment = new byte[0xFFFF];
+
+    private SeekableByteChannel in;
+    private WritableByteChannel out;
+    private long bytesOut;
+
+    public static Format detect(byte[] head, int len) {
+        if (len >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) {
+            return Format.JPEG;
+        }
+        if (len >= 8 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G'
+                && head[4] == 0x0D && head[5] == 0x0A && head[6] == 0x1A && head[7] == 0x0A) {
+            return Format.PNG;
+        }
+        if (len >= 12 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+                && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P') {
+            return Format.WEBP;
+        }
+        return null;
+    }
+
+    public Result strip(SeekableByteChannel source, WritableByteChannel sink, int orientationDegrees) throws IOException {
+        in = source;
+        out = sink;
+        bytesOut = 0;
+        inBuf.clear().flip();
+        outBuf.clear();
+        long start = source.position();
+        try {
+            byte[] head = new byte[12];
+            int n = 0;
+            while (n < head.length) {
+                int b = read();
+                if (b < 0) break;
+                head[n++] = (byte) b;
+            }
+            Format format = detect(head, n);
+            if (format == null) throw new IOException("Not a JPEG, PNG or WebP file");
+            source.position(start);
+            inBuf.clear().flip();
+
+            switch (format) {
+                case JPEG: stripJpeg(orientationDegrees); break;
+                case PNG: stripPng(orientationDegrees); break;
+                default: stripWebp(start, orientationDegrees); break;
+            }
+            flush();
+            return new Result(format, source.position() - start - inBuf.remaining(), bytesOut);
+        } finally {
+            in = null;
+            out = null;
+        }
+    }
+
+    private void stripJpeg(int orientationDegrees) throws IOException {
+        if (read() != 0xFF || read() != 0xD8) throw new IOException("Missing JPEG SOI marker");
+        write(0xFF);
+        write(0xD8);
+
+        int orientationValue = orientationDegrees >= 0
+                ? ExifOrientation.valueForDegrees(orientationDegrees) : 1;
+        boolean orientationWritten = false;
+
+        int code = nextMarker();
+        while (true) {
+            if (code == 0xD9) {
+                write(0xFF);
+                write(0xD9);
+                return;
+            }
+            if (code == 0x01 || (code >= 0xD0 && code <= 0xD7)) {
+                write(0xFF);
+                write(code);
+                code = nextMarker();
+                continue;
+            }
+
+            int len = readU16() - 2;
+            if (len < 0) throw new IOException("Corrupt JPEG segment length");
+            readFully(segment, len);
+
+            if (code == 0xE1 && orientationDegrees < 0) {
+                int v = ExifOrientation.orientationValueFromApp1(copyOf(segment, len));
+                if (v > 0) orientationValue = v;
+            }
+            if (!orientationWritten && code != 0xE0 && !isDroppedJpegSegment(code, len)) {
+                if (orientationValue > 1) writeOrientationApp1(orientationValue);
+                orientationWritten = true;
+            }
+            if (!isDroppedJpegSegment(code, len)) {
+                write(0xFF);
+                write(code);
+                write((len + 2) >> 8);
+                write((len + 2) & 0xFF);
+                write(segment, len);
+            }
+
+            code = (code == 0xDA) ? copyEntropyCodedData() : nextMarker();
+        }
+    }
+
+    private boolean isDroppedJpegSegment(int code, int len) {
+        return isMetadataSegment(code, segment, len);
+    }
+
+    /**
+     * True for JPEG marker segments that only carry metadata: comments and every APPn
+     * except JFIF, ICC profiles and the Adobe colour-transform marker.
+     */
+    public static boolean isMetadataSegment(int code, byte[] payload, int len) {
+        if (code == 0xFE) return true;
+        if (code < 0xE0 || code > 0xEF) return false;
+        if (code == 0xE0) return !startsWith(payload, len, "JFIF\0") && !startsWith(payload, len, "JFXX\0");
+        if (code == 0xE2) return !startsWith(payload, len, "ICC_PROFILE\0");
+        if (code == 0xEE) return !startsWith(payload, len, "Adobe");
+        return true;
+    }
+
+    /**
+     * Copies scan data up to the next marker that is not a restart or a stuffed byte and
+     * returns that marker's code. Anything after EOI, such as appended motion-photo video,
+     * is never reached.
+     */
+    private int copyEntropyCodedData() throws IOException {
+        while (true) {
+            int b = read();
+            if (b < 0) throw new EOFException("Truncated JPEG scan");
+            if (b != 0xFF) {
+                write(b);
+                continue;
+            }
+            int next = read();
+            while (next == 0xFF) next = read();
+            if (next < 0) throw new EOFException("Truncated JPEG scan");
+            if (next == 0x00 || (next >= 0xD0 && next <= 0xD7)) {
+                write(0xFF);
+                write(next);
+                continue;
+            }
+            return next;
+        }
+    }
+
+    private int nextMarker() throws IOException {
+        int b = read();
+        if (b != 0xFF) throw new IOException("Expected JPEG marker");
+        int code = read();
+        while (code == 0xFF) code = read();
+        if (code < 0) throw new EOFException("Truncated JPEG");
+        return code;
+    }
+
+    private void writeOrientationApp1(int value) throws IOException {
+        byte[] exif = ExifOrientation.minimalApp1(value);
+        write(0xFF);
+        write(0xE1);
+        write((exif.length + 2) >> 8);
+        write((exif.length + 2) & 0xFF);
+        write(exif, exif.length);
+    }
+
+    /**
+     * The orientation goes into a minimal eXIf chunk, written where the source's own eXIf
+     * was or else before the first IDAT.
+     */
+    private void stripPng(int orientationDegrees) throws IOException {
+        readFully(segment, 8);
+        write(segment, 8);
+        int orientationValue = orientationDegrees >= 0 ? ExifOrientation.valueForDegrees(orientationDegrees) : 1;
+        boolean orientationWritten = false;
+        while (true) {
+            readFully(segment, 8);
+            long len = ((segment[0] & 0xFFL) << 24) | ((segment[1] & 0xFF) << 16)
+                    | ((segment[2] & 0xFF) << 8) | (segment[3] & 0xFF);
+            String type = new String(segment, 4, 4, StandardCharsets.US_ASCII);
+            if (type.equals("eXIf") && !orientationWritten) {
+                if (orientationDegrees < 0 && len <= segment.length) {
+                    readFully(segment, (int) len);
+                    skip(4);
+                    int v = ExifOrientation.orientationValueFromTiff(copyOf(segment, (int) len), 0);
+                    if (v > 0) orientationValue = v;
+                } else {
+                    skip(len + 4);
+                }
+                if (orientationValue > 1) writePngOrientation(orientationValue);
+                orientationWritten = true;
+                continue;
+            }
+            if (type.equals("IDAT") && !orientationWritten) {
+                if (orientationValue > 1) writePngOrientation(orientationValue);
+                orientationWritten = true;
+            }
+            boolean drop = type.equals("tEXt") || type.equals("zTXt") || type.equals("iTXt")
+                    || type.equals("eXIf") || type.equals("tIME");
+            if (drop) {
+                skip(len + 4);
+            } else {
+                write(segment, 8);
+                copy(len + 4);
+            }
+            if (type.equals("IEND")) return;
+        }
+    }
+
+    private void writePngOrientation(int value) throws IOException {
+        byte[] tiff = ExifOrientation.minimalTiff(value);
+        byte[] chunk = new byte[4 + tiff.length];
+        chunk[0] = 'e';
+        chunk[1] = 'X';
+        chunk[2] = 'I';
+        chunk[3] = 'f';
+        System.arraycopy(tiff, 0, chunk, 4, tiff.length);
+        CRC32 crc = new CRC32();
+        crc.update(chunk);
+        writeBe32(tiff.length);
+        write(chunk, chunk.length);
+        writeBe32(crc.getValue());
+    }
+
+    private void writeBe32(long v) throws IOException {
+        write((int) (v >> 24) & 0xFF);
+        write((int) (v >> 16) & 0xFF);
+        write((int) (v >> 8) & 0xFF);
+        write((int) v & 0xFF);
+    }
+
+    /**
+     * Two passes: the first only reads chunk headers to size the rewritten RIFF, the second
+     * copies. Both stop at the RIFF size the header declares, so trailing bytes are dropped.
+     * The orientation goes into a minimal EXIF chunk at the end, which needs the extended
+     * format: a simple VP8 or VP8L file gets a VP8X header built from its bitstream's size.
+     */
+    private void stripWebp(long start, int orientationDegrees) throws IOException {
+        ByteBuffer hdr = ByteBuffer.allocate(8);
+        readAt(start + 4, hdr);
+        long riffEnd = 8 + le32(hdr.array(), 0);
+
+        int orientationValue = orientationDegrees >= 0 ? ExifOrientation.valueForDegrees(orientationDegrees) : 1;
+        boolean extended = false;
+        byte[] simpleVp8x = null;
+        long keptPayload = 4;
+        long consumed = 12;
+        while (consumed + 8 <= riffEnd) {
+            hdr.clear();
+            if (!readAt(start + consumed, hdr)) break;
+            String fourcc = new String(hdr.array(), 0, 4, StandardCharsets.US_ASCII);
+            long size = le32(hdr.array(), 4);
+            long padded = size + (size & 1);
+            if (consumed == 12) {
+                extended = fourcc.equals("VP8X");
+                if (!extended) simpleVp8x = vp8xFor(fourcc, start + consumed + 8, size);
+            }
+            if (fourcc.equals("EXIF") && orientationDegrees < 0 && size <= segment.length) {
+                ByteBuffer payload = ByteBuffer.wrap(segment, 0, (int) size);
+                if (readAt(start + consumed + 8, payload)) {
+                    byte[] exif = copyOf(segment, (int) size);
+                    int v = ExifOrientation.orientationValueFromTiff(exif, startsWith(exif, exif.length, "Exif\0\0") ? 6 : 0);
+                    if (v > 0) orientationValue = v;
+                }
+            }
+            if (!isDroppedWebpChunk(fourcc)) keptPayload += 8 + padded;
+            consumed += 8 + padded;
+        }
+
+        byte[] orientation = orientationValue > 1 ? ExifOrientation.minimalTiff(orientationValue) : null;
+        boolean addVp8x = orientation != null && !extended;
+        if (addVp8x && simpleVp8x == null) throw new IOException("Unrecognised WebP bitstream");
+        if (orientation != null) keptPayload += 8 + orientation.length + (orientation.length & 1);
+        if (addVp8x) keptPayload += 8 + simpleVp8x.length;
+
+        in.position(start);
+        inBuf.clear().flip();
+
+        readFully(segment, 12);
+        putLe32(segment, 4, keptPayload);
+        write(segment, 12);
+        if (addVp8x) writeWebpChunk("VP8X", simpleVp8x);
+
+        consumed = 12;
+        while (consumed + 8 <= riffEnd) {
+            readFully(segment, 8);
+            String fourcc = new String(segment, 0, 4, StandardCharsets.US_ASCII);
+            long size = le32(segment, 4);
+            long padded = size + (size & 1);
+            consumed += 8 + padded;
+            if (isDroppedWebpChunk(fourcc)) {
+                skip(padded);
+                continue;
+            }
+            write(segment, 8);
+            if (fourcc.equals("VP8X") && size >= 1) {
+                int flags = read() & ~(VP8X_EXIF | VP8X_XMP);
+                write(orientation != null ? flags | VP8X_EXIF : flags);
+                copy(padded - 1);
+            } else {
+                copy(padded);
+            }
+        }
+        if (orientation != null) writeWebpChunk("EXIF", orientation);
+    }
+
+    /**
+     * A VP8X payload for a simple file whose only chunk, {@code fourcc}, starts at
+     * {@code payloadAt}, with the EXIF flag set; null if the bitstream isn't recognised.
+     */
+    private byte[] vp8xFor(String fourcc, long payloadAt, long size) throws IOException {
+        if (size < 10) return null;
+        ByteBuffer head = ByteBuffer.allocate(10);
+        if (!readAt(payloadAt, head)) return null;
+        byte[] b = head.array();
+        int w, h, flags = VP8X_EXIF;
+        if (fourcc.equals("VP8 ")) {
+            if ((b[3] & 0xFF) != 0x9D || (b[4] & 0xFF) != 0x01 || (b[5] & 0xFF) != 0x2A) return null;
+            w = ((b[6] & 0xFF) | (b[7] & 0xFF) << 8) & 0x3FFF;
+            h = ((b[8] & 0xFF) | (b[9] & 0xFF) << 8) & 0x3FFF;
+        } else if (fourcc.equals("VP8L")) {
+            if ((b[0] & 0xFF) != 0x2F) return null;
+            long bits = le32(b, 1);
+            w = (int) (bits & 0x3FFF) + 1;
+            h = (int) ((bits >> 14) & 0x3FFF) + 1;
+            if ((bits >> 28 & 1) != 0) flags |= VP8X_ALPHA;
+        } else {
+            return null;
+        }
+        if (w == 0 || h == 0) return null;
+        byte[] vp8x = new byte[10];
+        vp8x[0] = (byte) flags;
+        put24(vp8x, 4, w - 1);
+        put24(vp8x, 7, h - 1);
+        return vp8x;
+    }
+
+    private void writeWebpChunk(String fourcc, byte[] payload) throws IOException {
+        byte[] hdr = new byte[8];
+        for (int i = 0; i < 4; i++) hdr[i] = (byte) fourcc.charAt(i);
+        putLe32(hdr, 4, payload.length);
+        write(hdr, 8);
+        write(payload, payload.length);
+        if ((payload.length & 1) != 0) write(0);
+    }
+
+    /** Fills {@code dst} from {@code position} of the source; false if the source ends first. */
+    private boolean readAt(long position, ByteBuffer dst) throws IOException {
+        in.position(position);
+        while (dst.hasRemaining() && in.read(dst) >= 0) {}
+        return !dst.hasRemaining();
+    }
+
+    private static boolean isDroppedWebpChunk(String fourcc) {
+        return fourcc.equals("EXIF") || fourcc.equals("XMP ");
+    }
+
+    private static long le32(byte[] b, int off) {
+        return (b[off] & 0xFFL) | ((b[off + 1] & 0xFFL) << 8) | ((b[off + 2] & 0xFFL) << 16) | ((b[off + 3] & 0xFFL) << 24);
+    }
+
+    private static void put24(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >> 8);
+        b[off + 2] = (byte) (v >> 16);
+    }
+
+    private static void putLe32(byte[] b, int off, long v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >> 8);
+        b[off + 2] = (byte) (v >> 16);
+        b[off + 3] = (byte) (v >> 24);
+    }
+
+    private static boolean startsWith(byte[] b, int len, String prefix) {
+        if (len < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) if (b[i] != (byte) prefix.charAt(i)) return false;
+        return true;
+    }
+
+    private static byte[] copyOf(byte[] b, int len) {
+        byte[] c = new byte[len];
+        System.arraycopy(b, 0, c, 0, len);
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        inBuf.compact();
+        int n = 0;
+        while (n == 0) n = in.read(inBuf);
+        inBuf.flip();
+        return n > 0;
+    }
+
+    private int read() throws IOException {
+        if (!inBuf.hasRemaining() && !fill()) return -1;
+        return inBuf.get() & 0xFF;
+    }
+
+    private int readU16() throws IOException {
+        int a = read(), b = read();
+        if ((a | b) < 0) throw new EOFException();
+        return (a << 8) | b;
+    }
+
+    private void readFully(byte[] dst, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            if (!inBuf.hasRemaining() && !fill()) throw new EOFException();
+            int n = Math.min(len - off, inBuf.remaining());
+            inBuf.get(dst, off, n);
+            off += n;
+        }
+    }
+
+    private void skip(long n) throws IOException {
+        long buffered = Math.min(n, inBuf.remaining());
+        inBuf.position(inBuf.position() + (int) buffered);
+        n -= buffered;
+        if (n > 0) in.position(in.position() + n);
+    }
+
+    private void copy(long n) throws IOException {
+        while (n > 0) {
+            if (!inBuf.hasRemaining() && !fill()) throw new EOFException();
+            int chunk = (int) Math.min(n, Math.min(inBuf.remaining(), outBuf.remaining()));
+            if (chunk == 0) {
+                flush();
+                continue;
+            }
+            int limit = inBuf.limit();
+            inBuf.limit(inBuf.position() + chunk);
+            outBuf.put(inBuf);
+            inBuf.limit(limit);
+            n -= chunk;
+        }
+    }
+
+    private void write(int b) throws IOException {
+        if (!outBuf.hasRemaining()) flush();
+        outBuf.put((byte) b);
+    }
+
+    private void write(byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            if (!outBuf.hasRemaining()) flush();
+            int n = Math.min(len - off, outBuf.remaining());
+            outBuf.put(b, off, n);
+            off += n;
+        }
+    }
+
+    private void flush() throws IOException {
+        outBuf.flip();
+        while (outBuf.hasRemaining()) bytesOut += out.write(outBuf);
+        outBuf.clear();
+    }
+}
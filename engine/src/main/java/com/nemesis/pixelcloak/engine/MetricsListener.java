@@ -0,0 +1,7 @@
+package com.nemesis.pixelcloak.engine;
+
+public interface MetricsListener {
+    default void onStageBegin(Stage stage) {}
+
+    default void onStageEnd(Stage stage, long wallNanos, long bytesAllocated, int iterations) {}
+}
@@ -0,0 +1,51 @@
+package com.nemesis.pixelcloak.engine;
+
+public final class Orientation {
+    private Orientation() {}
+
+    public static int normalize(int degrees) {
+        int d = ((degrees % 360) + 360) % 360;
+        return (d / 90) * 90;
+    }
+
+    public static boolean swapsAxes(int degrees) {
+        int d = normalize(degrees);
+        return d == 90 || d == 270;
+    }
+
+    /**
+     * Index of the pixel that stored pixel ({@code x}, {@code y}) of a {@code w} by {@code h}
+     * image lands on once the image is rotated clockwise by {@code degrees}.
+     */
+    public static long rotatedIndex(int x, int y, int w, int h, int degrees) {
+        switch (normalize(degrees)) {
+            case 90: return (long) x * h + (h - 1 - y);
+            case 180: return (long) (h - 1 - y) * w + (w - 1 - x);
+            case 270: return (long) (w - 1 - x) * h + y;
+            default: return (long) y * w + x;
+        }
+    }
+
+    /**
+     * Maps a {left, top, right, bottom} box found on an image displayed rotated clockwise by
+     * {@code degrees} back onto the stored {@code w} by {@code h} image.
+     */
+    public static int[] unrotateBox(int[] box, int w, int h, int degrees) {
+        int l = box[0], t = box[1], r = box[2], b = box[3];
+        switch (normalize(degrees)) {
+            case 90: return new int[]{t, h - r, b, h - l};
+            case 180: return new int[]{w - r, h - b, w - l, h - t};
+            case 270: return new int[]{w - b, l, w - t, r};
+            default: return new int[]{l, t, r, b};
+        }
+    }
+
+    /**
+     * The inverse of {@link #unrotateBox}: maps a box on the stored {@code w} by {@code h}
+     * image onto the image displayed rotated clockwise by {@code degrees}.
+     */
+    public static int[] rotateBox(int[] box, int w, int h, int degrees) {
+        boolean swap = swapsAxes(degrees);
+        return unrotateBox(box, swap ? h : w, swap ? w : h, 360 - normalize(degrees));
+    }
+}
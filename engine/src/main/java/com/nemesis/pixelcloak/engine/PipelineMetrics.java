@@ -0,0 +1,95 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public final class PipelineMetrics {
+    /** Work timed by {@link #time}, which has nothing to record besides its duration. */
+    public interface StageBody<E extends Exception> {
+        void run() throws E;
+    }
+
+    private static final class StageStats {
+        final Histogram wallNanos = new Histogram();
+        final Histogram bytes = new Histogram();
+        final Histogram iterations = new Histogram();
+    }
+
+    private final EnumMap<Stage, StageStats> stats = new EnumMap<>(Stage.class);
+    private final CopyOnWriteArrayList<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+    public PipelineMetrics() {
+        for (Stage s : Stage.values()) stats.put(s, new StageStats());
+    }
+
+    public void addListener(MetricsListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(MetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    public StageScope begin(Stage stage) {
+        for (MetricsListener l : listeners) l.onStageBegin(stage);
+        return new StageScope(this, stage);
+    }
+
+    /** Runs {@code body} as one {@code stage} that records neither bytes nor iterations. */
+    public <E extends Exception> void time(Stage stage, StageBody<E> body) throws E {
+        StageScope s = begin(stage);
+        try {
+            body.run();
+        } finally {
+            s.close();
+        }
+    }
+
+    void end(Stage stage, long wallNanos, long bytes, int iterations) {
+        StageStats s = stats.get(stage);
+        s.wallNanos.record(wallNanos);
+        s.bytes.record(bytes);
+        s.iterations.record(iterations);
+        for (MetricsListener l : listeners) l.onStageEnd(stage, wallNanos, bytes, iterations);
+    }
+
+    public Histogram wallNanos(Stage stage) {
+        return stats.get(stage).wallNanos;
+    }
+
+    public Histogram bytesAllocated(Stage stage) {
+        return stats.get(stage).bytes;
+    }
+
+    public Histogram iterations(Stage stage) {
+        return stats.get(stage).iterations;
+    }
+
+    public void reset() {
+        for (StageStats s : stats.values()) {
+            s.wallNanos.reset();
+            s.bytes.reset();
+            s.iterations.reset();
+        }
+    }
+
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%-14s %6s %9s %9s %9s %10s %6s%n",
+                "stage", "n", "p50 ms", "p99 ms", "max ms", "avg KiB", "iters"));
+        for (Stage stage : Stage.values()) {
+            StageStats s = stats.get(stage);
+            if (s.wallNanos.count() == 0) continue;
+            sb.append(String.format(Locale.US, "%-14s %6d %9.2f %9.2f %9.2f %10.1f %6.1f%n",
+                    stage.label(),
+                    s.wallNanos.count(),
+                    s.wallNanos.percentile(50) / 1e6,
+                    s.wallNanos.percentile(99) / 1e6,
+                    s.wallNanos.max() / 1e6,
+                    s.bytes.mean() / 1024.0,
+                    s.iterations.mean()));
+        }
+        return sb.toString();
+    }
+}
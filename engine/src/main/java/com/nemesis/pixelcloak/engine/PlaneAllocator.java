@@ -0,0 +1,77 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Hands out {@link ImagePlane}s from the cheapest storage that still has room: the Java
+ * heap up to {@code heapBudget} bytes, then direct memory up to {@code directBudget}, then
+ * memory-mapped scratch files in {@code scratchDir}. Without a scratch directory the last
+ * tier falls back to direct memory regardless of its budget.
+ */
+public final class PlaneAllocator {
+    private final long heapBudget;
+    private final long directBudget;
+    private final File scratchDir;
+    private long heapInUse;
+    private long directInUse;
+
+    public PlaneAllocator(long heapBudget, long directBudget, File scratchDir) {
+        this.heapBudget = Math.max(0, heapBudget);
+        this.directBudget = Math.max(0, directBudget);
+        this.scratchDir = scratchDir;
+    }
+
+    /** Everything on the heap, for callers that already hold the whole image in an array. */
+    public static PlaneAllocator heapOnly() {
+        return new PlaneAllocator(Long.MAX_VALUE, 0, null);
+    }
+
+    /**
+     * Zeroes and deletes scratch files left in {@code scratchDir} by a process that died
+     * before it could close its planes. Call only while no planes from that directory are open.
+     */
+    public static void wipeStale(File scratchDir) {
+        File[] files = scratchDir.listFiles((dir, name) -> name.startsWith("plane") && name.endsWith(".scratch"));
+        if (files == null) return;
+        byte[] zero = new byte[64 * 1024];
+        for (File f : files) {
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                for (long left = raf.length(); left > 0; left -= zero.length) {
+                    raf.write(zero, 0, (int) Math.min(zero.length, left));
+                }
+                raf.getFD().sync();
+                raf.setLength(0);
+            } catch (IOException ignore) {
+                // Deleting below is still better than leaving the file.
+            }
+            f.delete();
+        }
+    }
+
+    public synchronized ImagePlane allocate(int w, int h, int channels) throws IOException {
+        long floats = (long) w * h * channels;
+        long bytes = floats * 4;
+        ImagePlane plane;
+        if (heapInUse + bytes <= heapBudget && floats <= Integer.MAX_VALUE - 8) {
+            plane = new ImagePlane.Heap(new float[(int) floats], w, h, channels);
+            heapInUse += bytes;
+        } else if (directInUse + bytes <= directBudget || scratchDir == null) {
+            plane = ImagePlane.Buffers.direct(w, h, channels);
+            directInUse += bytes;
+        } else {
+            plane = ImagePlane.Buffers.mapped(scratchDir, w, h, channels);
+        }
+        plane.ownedBy(this);
+        return plane;
+    }
+
+    synchronized void released(ImagePlane plane) {
+        if (plane instanceof ImagePlane.Heap) {
+            heapInUse -= plane.bytes();
+        } else if (plane instanceof ImagePlane.Buffers && !((ImagePlane.Buffers) plane).isMapped()) {
+            directInUse -= plane.bytes();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.util.Arrays;
+
+/** A small packed-ARGB copy of an RGB plane, cheap enough to hand to a UI every pass. */
+public final class PreviewFrame {
+    public final int[] argb;
+    public final int w, h;
+
+    private PreviewFrame(int[] argb, int w, int h) {
+        this.argb = argb;
+        this.w = w;
+        this.h = h;
+    }
+
+    /**
+     * Box-filters an interleaved RGB plane down so its long side is at most {@code maxDim}.
+     * Every source pixel contributes to exactly one output pixel, so no detail aliases in.
+     */
+    public static PreviewFrame of(float[] rgb, int w, int h, int maxDim) {
+        return of(ImagePlane.wrap(rgb, w, h, 3), maxDim);
+    }
+
+    /** As above, reading {@code rgb} one row at a time. */
+    public static PreviewFrame of(ImagePlane rgb, int maxDim) {
+        final int w = rgb.w, h = rgb.h;
+        int step = 1;
+        while (Math.max(w, h) / step > maxDim) step++;
+        int pw = (w + step - 1) / step;
+        int ph = (h + step - 1) / step;
+        int[] out = new int[pw * ph];
+        float[] row = new float[rgb.stride()];
+        float[] sum = new float[pw * 3];
+        for (int py = 0; py < ph; py++) {
+            int y0 = py * step, y1 = Math.min(h, y0 + step);
+            Arrays.fill(sum, 0f);
+            for (int y = y0; y < y1; y++) {
+                rgb.readRow(y, row);
+                for (int x = 0; x < w; x++) {
+                    int o = (x / step) * 3;
+                    sum[o] += row[x * 3];
+                    sum[o + 1] += row[x * 3 + 1];
+                    sum[o + 2] += row[x * 3 + 2];
+                }
+            }
+            for (int px = 0; px < pw; px++) {
+                int x0 = px * step, x1 = Math.min(w, x0 + step);
+                float n = (y1 - y0) * (x1 - x0);
+                int o = px * 3;
+                out[py * pw + px] = 0xFF000000 | (channel(sum[o] / n) << 16)
+                        | (channel(sum[o + 1] / n) << 8) | channel(sum[o + 2] / n);
+            }
+        }
+        return new PreviewFrame(out, pw, ph);
+    }
+
+    private static int channel(float v) {
+        return Math.max(0, Math.min(255, Math.round(v)));
+    }
+}
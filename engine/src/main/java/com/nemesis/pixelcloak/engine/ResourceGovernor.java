@@ -0,0 +1,81 @@
+package com.nemesis.pixelcloak.engine;
+
+/**
+ * Picks the processing resolution from the memory that is actually available and the time
+ * one search may take, instead of a fixed maximum dimension.
+ */
+public final class ResourceGovernor {
+    public static final int MIN_PROCESS_DIM = 64;
+    public static final int MAX_PROCESS_DIM = 4096;
+
+    /** The downscaled input bitmap and the perturbed output bitmap, 4 bytes each. */
+    private static final int BITMAP_BYTES_PER_PIXEL = 8;
+    /**
+     * Rough pixel budget that keeps the search within a few seconds on phones. The search
+     * runs on a single thread, so more cores do not buy a larger size.
+     */
+    private static final long SEARCH_PIXELS = 1_000_000L;
+    private static final double HEADROOM = 0.75;
+
+    private final long heapLimitBytes;
+    private final long heapUsedBytes;
+    private final long scratchBytes;
+
+    public ResourceGovernor(long heapLimitBytes, long heapUsedBytes) {
+        this(heapLimitBytes, heapUsedBytes, 0);
+    }
+
+    /**
+     * {@code scratchBytes} is how much the engine's working planes may spill to outside the
+     * heap (see {@link PlaneAllocator}); with 0 they are budgeted against the heap.
+     */
+    public ResourceGovernor(long heapLimitBytes, long heapUsedBytes, long scratchBytes) {
+        this.heapLimitBytes = heapLimitBytes;
+        this.heapUsedBytes = heapUsedBytes;
+        this.scratchBytes = Math.max(0, scratchBytes);
+    }
+
+    public long availableBytes() {
+        return Math.max(0, heapLimitBytes - heapUsedBytes);
+    }
+
+    /** Whether {@code bytes} of fixed-size work fits in the heap that is left, with headroom. */
+    public boolean admits(long bytes) {
+        return bytes <= availableBytes() * HEADROOM;
+    }
+
+    public static long workingSetBytes(int w, int h) {
+        return CloakEngine.estimatePeakBytes(w, h) + (long) w * h * BITMAP_BYTES_PER_PIXEL;
+    }
+
+    /** Heap bytes for processing at {@code w} by {@code h} when the working planes live elsewhere. */
+    public static long offHeapWorkingSetBytes(int w, int h) {
+        return (long) w * h * BITMAP_BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Largest dimension the longer side of a {@code srcW x srcH} image may be processed at.
+     * {@code fixedBytes} covers allocations that do not scale with the processing size,
+     * such as the full-resolution output bitmap.
+     */
+    public int chooseProcessDim(int srcW, int srcH, long fixedBytes) {
+        int srcMax = Math.max(srcW, srcH);
+        double aspect = (double) srcW * srcH / ((double) srcMax * srcMax);
+
+        double budget = (availableBytes() - Math.max(0, fixedBytes)) * HEADROOM;
+        double memPixels;
+        if (scratchBytes > 0) {
+            memPixels = Math.min(budget / BITMAP_BYTES_PER_PIXEL,
+                    scratchBytes * HEADROOM / CloakEngine.PLANE_BYTES_PER_PIXEL);
+        } else {
+            memPixels = budget / (CloakEngine.PEAK_BYTES_PER_PIXEL + BITMAP_BYTES_PER_PIXEL);
+        }
+        double cpuPixels = SEARCH_PIXELS;
+        double pixels = Math.min(memPixels, cpuPixels);
+
+        int dim = pixels <= 0 ? 0 : (int) Math.floor(Math.sqrt(pixels / aspect));
+        // The fixed cap only exists to bound heap planes; spilled planes are bounded by scratch space.
+        dim = Math.min(dim, scratchBytes > 0 ? srcMax : Math.min(srcMax, MAX_PROCESS_DIM));
+        return Math.max(Math.min(MIN_PROCESS_DIM, srcMax), dim);
+    }
+}
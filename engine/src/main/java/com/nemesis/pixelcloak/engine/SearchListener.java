@@ -0,0 +1,12 @@
+package com.nemesis.pixelcloak.engine;
+
+/**
+ * Receives the best candidate found so far while a search is still running. Called on the
+ * search thread, so implementations should hand the frame off rather than draw it.
+ */
+public interface SearchListener {
+    /** Long side, in pixels, of the frames passed to {@link #onBestCandidate}. */
+    int previewMaxDim();
+
+    void onBestCandidate(PreviewFrame frame, int iteration, double score);
+}
@@ -0,0 +1,143 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Cloaks the frames of a burst or an animation in order, carrying work over from one frame
+ * to the next while they barely differ. A frame whose thumbnail is within
+ * {@code changeThreshold} mean luma levels of the last one that was fully processed keeps
+ * that frame's saliency mask, and its search starts at the scale the last search settled
+ * on, which usually makes it a single pass. Any other frame gets a fresh mask and a full
+ * search. Faces are detected on every frame: a face small enough to move without shifting
+ * the mean luma would otherwise slip out from under boxes found on an earlier frame.
+ *
+ * <p>Differences are measured against the last fully processed frame rather than the
+ * previous one, so slow drift across many frames still triggers a refresh. Not thread-safe.
+ */
+public final class SequenceCloaker implements AutoCloseable {
+    /** Long side of the thumbnails frames are compared on. */
+    private static final int DIFF_DIM = 64;
+
+    public static final class Frame {
+        public final CloakEngine.Result result;
+        /** Face boxes for this frame, as returned by the detector, or null without one. */
+        public final List<int[]> faces;
+        /** Whether mask and scale were carried over from an earlier frame. */
+        public final boolean reused;
+        /** Mean absolute luma difference to the last fully processed frame, or NaN for the first. */
+        public final double change;
+
+        Frame(CloakEngine.Result result, List<int[]> faces, boolean reused, double change) {
+            this.result = result;
+            this.faces = faces;
+            this.reused = reused;
+            this.change = change;
+        }
+    }
+
+    private final CloakEngine engine;
+    private final PlaneAllocator planes;
+    private final double strength;
+    private final double targetSsim;
+    private final int maxIters;
+    private final double patchDensity;
+    private final int blockSize;
+    private final double changeThreshold;
+    private final PipelineMetrics metrics;
+
+    private ImagePlane mask;
+    private PreviewFrame keyThumb;
+    private double keyScale;
+    private int frames;
+    private int reused;
+    private long busyNanos;
+
+    public SequenceCloaker(CloakEngine engine, PlaneAllocator planes, double strength, double targetSsim,
+                           int maxIters, double patchDensity, int blockSize, double changeThreshold,
+                           PipelineMetrics metrics) {
+        this.engine = engine;
+        this.planes = planes;
+        this.strength = strength;
+        this.targetSsim = targetSsim;
+        this.maxIters = maxIters;
+        this.patchDensity = patchDensity;
+        this.blockSize = blockSize;
+        this.changeThreshold = changeThreshold;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Cloaks {@code orig} into {@code best}. {@code faces} is called once for every frame;
+     * it may be null to skip detection.
+     */
+    public Frame next(ImagePlane orig, ImagePlane best, Callable<List<int[]>> faces) throws Exception {
+        long start = System.nanoTime();
+        try {
+            PreviewFrame thumb;
+            double change = Double.NaN;
+            try (StageScope s = metrics.begin(Stage.FRAME_DIFF)) {
+                thumb = PreviewFrame.of(orig, DIFF_DIM);
+                s.addBytes((long) thumb.argb.length * 4);
+                if (keyThumb != null && mask != null && mask.w == orig.w && mask.h == orig.h) {
+                    change = meanLumaDifference(keyThumb, thumb);
+                }
+            }
+
+            List<int[]> found = faces != null ? faces.call() : null;
+            if (!Double.isNaN(change) && change <= changeThreshold) {
+                CloakEngine.Result r = engine.perturb(orig, best, mask, planes,
+                        keyScale, targetSsim, maxIters, patchDensity, blockSize, null);
+                reused++;
+                return new Frame(r, found, true, change);
+            }
+
+            if (mask != null && (mask.w != orig.w || mask.h != orig.h)) {
+                mask.close();
+                mask = null;
+            }
+            if (mask == null) mask = planes.allocate(orig.w, orig.h, 1);
+            engine.saliency(orig, mask, planes);
+            CloakEngine.Result r = engine.perturb(orig, best, mask, planes,
+                    strength, targetSsim, maxIters, patchDensity, blockSize, null);
+            keyThumb = thumb;
+            keyScale = r.scale;
+            return new Frame(r, found, false, change);
+        } finally {
+            frames++;
+            busyNanos += System.nanoTime() - start;
+        }
+    }
+
+    public int frames() {
+        return frames;
+    }
+
+    public int reusedFrames() {
+        return reused;
+    }
+
+    /** Frames cloaked per second of time spent in {@link #next}. */
+    public double framesPerSecond() {
+        return busyNanos > 0 ? frames / (busyNanos / 1e9) : 0;
+    }
+
+    /** Wipes and releases the carried-over mask. */
+    @Override
+    public void close() {
+        if (mask != null) mask.close();
+        mask = null;
+        keyThumb = null;
+    }
+
+    private static double meanLumaDifference(PreviewFrame a, PreviewFrame b) {
+        if (a.w != b.w || a.h != b.h) return Double.POSITIVE_INFINITY;
+        double sum = 0;
+        for (int i = 0; i < a.argb.length; i++) sum += Math.abs(luma(a.argb[i]) - luma(b.argb[i]));
+        return sum / a.argb.length;
+    }
+
+    private static double luma(int c) {
+        return 0.299 * ((c >> 16) & 0xFF) + 0.587 * ((c >> 8) & 0xFF) + 0.114 * (c & 0xFF);
+    }
+}
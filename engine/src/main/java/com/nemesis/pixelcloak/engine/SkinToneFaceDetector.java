@@ -0,0 +1,87 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A crude pure-Java stand-in for a real face detector: it reports skin-coloured blobs of
+ * roughly face proportions. Pixels are classified in YCbCr, and square-ish windows at
+ * several scales are scored against an integral image of that mask, so each window costs
+ * the same regardless of its size.
+ *
+ * <p>It misses faces under odd lighting and flags hands, arms and sand, so it is meant
+ * for exercising and benchmarking the pipeline on a plain JVM, not for protecting anyone.
+ */
+public final class SkinToneFaceDetector implements FaceBoxDetector {
+    private static final double WINDOW_ASPECT = 1.25;
+    private static final double SCALE_STEP = 1.25;
+    private static final int MIN_WINDOW = 12;
+    /** Share of a window that must be skin. */
+    private static final double MIN_DENSITY = 0.55;
+    /** How much sparser the ring around a window must be, so a skin-coloured wall isn't a face. */
+    private static final double MIN_CONTRAST = 0.2;
+
+    @Override
+    public List<int[]> detect(int[] argb, int w, int h, int rotation) {
+        int[] skin = integralSkinMask(argb, w, h);
+        List<int[]> found = new ArrayList<>();
+        int maxWindow = (int) Math.min(w, h / WINDOW_ASPECT);
+        int window = Math.max(MIN_WINDOW, (int) (DetectionScheduler.MIN_FACE_FRACTION * Math.max(w, h)));
+        for (; window <= maxWindow; window = (int) Math.ceil(window * SCALE_STEP)) {
+            int ww = window;
+            int wh = (int) (window * WINDOW_ASPECT);
+            int stride = Math.max(1, window / 4);
+            int ringX = ww / 4, ringY = wh / 4;
+            for (int y = 0; y + wh <= h; y += stride) {
+                for (int x = 0; x + ww <= w; x += stride) {
+                    long inner = sum(skin, w, x, y, x + ww, y + wh);
+                    double density = (double) inner / ((long) ww * wh);
+                    if (density < MIN_DENSITY) continue;
+
+                    int ol = Math.max(0, x - ringX), ot = Math.max(0, y - ringY);
+                    int or = Math.min(w, x + ww + ringX), ob = Math.min(h, y + wh + ringY);
+                    long ringArea = (long) (or - ol) * (ob - ot) - (long) ww * wh;
+                    if (ringArea <= 0) continue;
+                    double ring = (double) (sum(skin, w, ol, ot, or, ob) - inner) / ringArea;
+                    if (density - ring < MIN_CONTRAST) continue;
+
+                    found.add(new int[]{x, y, x + ww, y + wh});
+                }
+            }
+        }
+
+        List<int[]> boxes = DetectionScheduler.suppress(found);
+        if (Orientation.normalize(rotation) == 0) return boxes;
+        List<int[]> rotated = new ArrayList<>(boxes.size());
+        for (int[] b : boxes) rotated.add(Orientation.rotateBox(b, w, h, rotation));
+        return rotated;
+    }
+
+    /** Summed-area table of the skin mask, {@code (w + 1) * (h + 1)} entries. */
+    private static int[] integralSkinMask(int[] argb, int w, int h) {
+        int[] sat = new int[(w + 1) * (h + 1)];
+        for (int y = 0; y < h; y++) {
+            int rowSum = 0;
+            for (int x = 0; x < w; x++) {
+                if (isSkin(argb[y * w + x])) rowSum++;
+                sat[(y + 1) * (w + 1) + x + 1] = sat[y * (w + 1) + x + 1] + rowSum;
+            }
+        }
+        return sat;
+    }
+
+    private static long sum(int[] sat, int w, int l, int t, int r, int b) {
+        int stride = w + 1;
+        return (long) sat[b * stride + r] - sat[t * stride + r] - sat[b * stride + l] + sat[t * stride + l];
+    }
+
+    /** The Chai and Ngan chrominance range, with very dark pixels left out. */
+    private static boolean isSkin(int c) {
+        int r = (c >> 16) & 0xFF, g = (c >> 8) & 0xFF, b = c & 0xFF;
+        double y = 0.299 * r + 0.587 * g + 0.114 * b;
+        if (y < 40) return false;
+        double cb = 128 - 0.168736 * r - 0.331264 * g + 0.5 * b;
+        double cr = 128 + 0.5 * r - 0.418688 * g - 0.081312 * b;
+        return cb >= 77 && cb <= 127 && cr >= 133 && cr <= 173;
+    }
+}
@@ -0,0 +1,40 @@
+package com.nemesis.pixelcloak.engine;
+
+public enum Stage {
+    LOAD("load"),
+    DOWNSCALE("downscale"),
+    SALIENCY("saliency"),
+    SEARCH("search"),
+    BLOCK_SHUFFLE("blockShuffle"),
+    PATCH_OVERLAY("patchOverlay"),
+    NOISE("noise"),
+    BLEND("blend"),
+    HSV("hsv"),
+    SSIM("ssim"),
+    FACE_DETECTION("faceDetection"),
+    FACE_TILES("faceTiles"),
+    CENSOR("censor"),
+    UPSCALE("upscale"),
+    ENCODE("encode"),
+    SAVE("save"),
+    STRIP("strip"),
+    REQUANTIZE("requantize"),
+    DCT_PERTURB("dctPerturb"),
+    PREVIEW("preview"),
+    HASH("hash"),
+    FRAME_DIFF("frameDiff");
+
+    private final String label;
+
+    Stage(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    public String traceName() {
+        return "PixelCloak:" + label;
+    }
+}
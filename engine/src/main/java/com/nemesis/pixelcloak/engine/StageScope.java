@@ -0,0 +1,34 @@
+package com.nemesis.pixelcloak.engine;
+
+public final class StageScope implements AutoCloseable {
+    private final PipelineMetrics metrics;
+    private final Stage stage;
+    private final long startNanos;
+    private long bytes;
+    private int iterations = 1;
+    private boolean closed;
+
+    StageScope(PipelineMetrics metrics, Stage stage) {
+        this.metrics = metrics;
+        this.stage = stage;
+        this.startNanos = System.nanoTime();
+    }
+
+    /** Records {@code allocated} bytes as allocated by this stage; pass only counted sizes, never guesses. */
+    public StageScope addBytes(long allocated) {
+        bytes += allocated;
+        return this;
+    }
+
+    public StageScope setIterations(int count) {
+        iterations = count;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        metrics.end(stage, System.nanoTime() - startNanos, bytes, iterations);
+    }
+}
@@ -0,0 +1,131 @@
+package com.nemesis.pixelcloak.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming 64-bit xxHash (seed 0). Fast enough to fingerprint a photo while it is read,
+ * and good enough to tell duplicate files apart; not a cryptographic digest.
+ */
+public final class XxHash64 {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private long v1 = P1 + P2, v2 = P2, v3 = 0, v4 = -P1;
+    private final byte[] buf = new byte[32];
+    private int bufLen;
+    private long total;
+
+    public static long hash(InputStream in) throws IOException {
+        XxHash64 h = new XxHash64();
+        h.update(in);
+        return h.digest();
+    }
+
+    /** Hashes the rest of {@code in}, without closing it. */
+    public void update(InputStream in) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(chunk)) >= 0) update(chunk, 0, n);
+    }
+
+    /** Number of bytes hashed so far. */
+    public long length() {
+        return total;
+    }
+
+    public void update(int b) {
+        buf[bufLen++] = (byte) b;
+        total++;
+        if (bufLen == 32) {
+            consume(buf, 0);
+            bufLen = 0;
+        }
+    }
+
+    public void update(byte[] b, int off, int len) {
+        total += len;
+        if (bufLen > 0) {
+            int fill = Math.min(len, 32 - bufLen);
+            System.arraycopy(b, off, buf, bufLen, fill);
+            bufLen += fill;
+            off += fill;
+            len -= fill;
+            if (bufLen < 32) return;
+            consume(buf, 0);
+            bufLen = 0;
+        }
+        while (len >= 32) {
+            consume(b, off);
+            off += 32;
+            len -= 32;
+        }
+        System.arraycopy(b, off, buf, 0, len);
+        bufLen = len;
+    }
+
+    public long digest() {
+        long h;
+        if (total >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = P5;
+        }
+        h += total;
+
+        int i = 0;
+        for (; i + 8 <= bufLen; i += 8) {
+            h ^= round(0, readLong(buf, i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i + 4 <= bufLen) {
+            h ^= (readInt(buf, i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < bufLen; i++) {
+            h ^= (buf[i] & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private void consume(byte[] b, int off) {
+        v1 = round(v1, readLong(b, off));
+        v2 = round(v2, readLong(b, off + 8));
+        v3 = round(v3, readLong(b, off + 16));
+        v4 = round(v4, readLong(b, off + 24));
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long h, long v) {
+        h ^= round(0, v);
+        return h * P1 + P4;
+    }
+
+    private static long readLong(byte[] b, int i) {
+        return (readInt(b, i) & 0xFFFFFFFFL) | ((long) readInt(b, i + 4) << 32);
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,276 @@
+package com.nemesis.pixelcloak.engine.jpeg;
+
+import com.nemesis.pixelcloak.engine.PipelineMetrics;
+import com.nemesis.pixelcloak.engine.Stage;
+import com.nemesis.pixelcloak.engine.StageScope;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compressed-domain counterpart of {@link com.nemesis.pixelcloak.engine.CloakEngine}: the
+ * perturbation is applied to quantised DCT coefficients, so a JPEG is cloaked at native
+ * resolution without ever being decoded to pixels.
+ *
+ * <p>Distortion is measured on the luma plane through Parseval's theorem (the JPEG DCT is
+ * orthonormal), giving an exact pixel-domain PSNR before rounding and clamping.
+ */
+public final class DctCloakEngine {
+    private static final int[] STD_LUMA_QUANT = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+    private static final int[] STD_CHROMA_QUANT = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    /** Zigzag bands: DC, low AC kept nearly intact, mid and high AC perturbed harder. */
+    private static final int LOW_END = 5;
+    private static final int MID_END = 27;
+
+    private static final int AC_LIMIT = 1023;
+    private static final int DC_LIMIT = 2047;
+
+    /** Source, requantised base, working and best copies of up to three full-size planes. */
+    public static final int PEAK_BYTES_PER_PIXEL = 4 * 3 * 2;
+
+    public static final class Result {
+        public final JpegCoefficients coefficients;
+        public final double psnr;
+        public final int iterations;
+        /** Perturbation scale of the pass that produced {@link #coefficients}. */
+        public final double scale;
+
+        Result(JpegCoefficients coefficients, double psnr, int iterations, double scale) {
+            this.coefficients = coefficients;
+            this.psnr = psnr;
+            this.iterations = iterations;
+            this.scale = scale;
+        }
+    }
+
+    private final SecureRandom secureRandom;
+    private final AtomicBoolean isCancelled;
+    private final PipelineMetrics metrics;
+    private final byte[] entropy = new byte[4096];
+    private int entropyPos = entropy.length;
+
+    public DctCloakEngine(SecureRandom secureRandom, AtomicBoolean isCancelled, PipelineMetrics metrics) {
+        this.secureRandom = secureRandom;
+        this.isCancelled = isCancelled;
+        this.metrics = metrics;
+    }
+
+    public static long estimatePeakBytes(int w, int h) {
+        return (long) w * h * PEAK_BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Requantises {@code source} to no finer than {@code jpegQuality}, then searches for the
+     * strongest perturbation whose luma PSNR against the requantised image stays at or above
+     * {@code targetPsnr}. {@code source} is left untouched.
+     */
+    public Result strongPerturbCoefficients(JpegCoefficients source,
+                                            double strength,
+                                            double targetPsnr,
+                                            int maxIters,
+                                            int jpegQuality) {
+        JpegCoefficients base;
+        try (StageScope s = metrics.begin(Stage.REQUANTIZE)) {
+            base = source.copy();
+            requantize(base, jpegQuality);
+            s.addBytes(base.coefficientBytes());
+        }
+
+        // Two buffers: each attempt overwrites work, and an improvement swaps it with the spare.
+        JpegCoefficients work = base.copy();
+        JpegCoefficients spare = base.copy();
+        JpegCoefficients best = null;
+        double bestPsnr = -1.0;
+        double bestScale = strength;
+        double curScale = strength;
+        int attempt = 0;
+
+        try (StageScope search = metrics.begin(Stage.SEARCH)) {
+            search.addBytes(work.coefficientBytes() + spare.coefficientBytes());
+            while (attempt < maxIters && !isCancelled.get()) {
+                attempt++;
+                search.setIterations(attempt);
+                for (int ci = 0; ci < work.components.length; ci++) {
+                    short[] from = base.components[ci].coef;
+                    System.arraycopy(from, 0, work.components[ci].coef, 0, from.length);
+                }
+
+                final JpegCoefficients candidate = work;
+                final double scale = curScale;
+                metrics.time(Stage.DCT_PERTURB, () -> {
+                    for (int ci = 0; ci < candidate.components.length && !isCancelled.get(); ci++) {
+                        perturbComponent(candidate.components[ci].coef, ci == 0, scale);
+                    }
+                });
+
+                double psnr = lumaPsnr(base, work);
+                if (psnr > bestPsnr || best == null) {
+                    bestPsnr = psnr;
+                    bestScale = curScale;
+                    JpegCoefficients previous = best == null ? spare : best;
+                    best = work;
+                    work = previous;
+                }
+                if (psnr >= targetPsnr || curScale <= 0.02 || isCancelled.get()) break;
+                curScale *= 0.72;
+            }
+        }
+        if (best == null) best = base;
+        return new Result(best, bestPsnr, attempt, bestScale);
+    }
+
+    /**
+     * Replaces every block touching the rectangle with flat black (luma) and neutral
+     * chroma. Coordinates are in full-resolution pixels of the stored, unrotated image.
+     */
+    public static void blackOut(JpegCoefficients c, int x0, int y0, int x1, int y1) {
+        for (int ci = 0; ci < c.components.length; ci++) {
+            JpegCoefficients.Component comp = c.components[ci];
+            int bx0 = Math.max(0, (x0 * comp.h / c.hMax) / 8);
+            int by0 = Math.max(0, (y0 * comp.v / c.vMax) / 8);
+            int bx1 = Math.min(comp.blocksW, ((x1 * comp.h + c.hMax - 1) / c.hMax + 7) / 8);
+            int by1 = Math.min(comp.blocksH, ((y1 * comp.v + c.vMax - 1) / c.vMax + 7) / 8);
+            int q0 = Math.max(1, c.quant[comp.tq][0]);
+            short dc = ci == 0 && c.components.length != 4 ? (short) Math.round(-1024.0 / q0) : 0;
+            for (int by = by0; by < by1; by++) {
+                for (int bx = bx0; bx < bx1; bx++) {
+                    int off = (by * comp.blocksW + bx) * 64;
+                    comp.coef[off] = dc;
+                    for (int k = 1; k < 64; k++) comp.coef[off + k] = 0;
+                }
+            }
+        }
+    }
+
+    private void requantize(JpegCoefficients c, int quality) {
+        int q = Math.max(1, Math.min(100, quality));
+        int scale = q < 50 ? 5000 / q : 200 - q * 2;
+        int[][] target = new int[4][];
+        for (int t = 0; t < 4; t++) {
+            int[] old = c.quant[t];
+            if (old == null) continue;
+            int[] std = isLumaTable(c, t) ? STD_LUMA_QUANT : STD_CHROMA_QUANT;
+            int[] nq = new int[64];
+            for (int k = 0; k < 64; k++) {
+                int s = (std[JpegCoefficients.ZIGZAG_TO_NATURAL[k]] * scale + 50) / 100;
+                nq[k] = Math.max(old[k], Math.max(1, Math.min(255, s)));
+            }
+            target[t] = nq;
+        }
+        for (JpegCoefficients.Component comp : c.components) {
+            int[] old = c.quant[comp.tq];
+            int[] nq = target[comp.tq];
+            short[] coef = comp.coef;
+            for (int i = 0; i < coef.length; i++) {
+                int k = i & 63;
+                if (nq[k] == old[k] || coef[i] == 0) continue;
+                coef[i] = (short) Math.round((double) coef[i] * old[k] / nq[k]);
+            }
+        }
+        for (int t = 0; t < 4; t++) if (target[t] != null) c.quant[t] = target[t];
+    }
+
+    private static boolean isLumaTable(JpegCoefficients c, int t) {
+        return c.components[0].tq == t;
+    }
+
+    private void perturbComponent(short[] coef, boolean luma, double scale) {
+        final int noiseThreshold = (int) (Math.min(1.0, (luma ? 0.35 : 0.2) * scale) * 65536);
+        final int flipThreshold = (int) (Math.min(1.0, 0.25 * scale) * 65536);
+        final int dcThreshold = (int) (Math.min(1.0, (luma ? 0.15 : 0.08) * scale) * 65536);
+        final int lowThreshold = (int) (Math.min(1.0, 0.06 * scale) * 65536);
+        final int shuffleThreshold = (int) (Math.min(1.0, 0.5 * scale) * 65536);
+
+        for (int off = 0; off < coef.length; off += 64) {
+            if (next16() < dcThreshold) {
+                coef[off] = clamp(coef[off] + (nextBit() ? 1 : -1), DC_LIMIT);
+            }
+            for (int k = 1; k < 64; k++) {
+                int v = coef[off + k];
+                if (k <= LOW_END) {
+                    if (v != 0 && next16() < lowThreshold) coef[off + k] = clamp(v + (nextBit() ? 1 : -1), AC_LIMIT);
+                    continue;
+                }
+                if (v == 0) continue;
+                if (next16() < noiseThreshold) {
+                    v = clamp(v + (nextBit() ? 1 : -1), AC_LIMIT);
+                }
+                if (k > 9 && (v == 1 || v == -1) && next16() < flipThreshold) {
+                    v = -v;
+                }
+                coef[off + k] = (short) v;
+            }
+            if (next16() < shuffleThreshold) {
+                shuffleBand(coef, off + MID_END + 1, 63 - MID_END);
+            }
+        }
+    }
+
+    private void shuffleBand(short[] coef, int start, int len) {
+        for (int i = len - 1; i > 0; i--) {
+            int j = nextInt(i + 1);
+            short t = coef[start + i];
+            coef[start + i] = coef[start + j];
+            coef[start + j] = t;
+        }
+    }
+
+    private static double lumaPsnr(JpegCoefficients a, JpegCoefficients b) {
+        JpegCoefficients.Component ca = a.components[0], cb = b.components[0];
+        int[] q = a.quant[ca.tq];
+        double sse = 0.0;
+        for (int i = 0; i < ca.coef.length; i++) {
+            int d = ca.coef[i] - cb.coef[i];
+            if (d == 0) continue;
+            double e = (double) d * q[i & 63];
+            sse += e * e;
+        }
+        double mse = sse / ca.coef.length;
+        if (mse <= 0) return 99.0;
+        return 10.0 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    private static short clamp(int v, int limit) {
+        return (short) Math.max(-limit, Math.min(limit, v));
+    }
+
+    private int next16() {
+        if (entropyPos + 2 > entropy.length) refill();
+        int v = ((entropy[entropyPos] & 0xFF) << 8) | (entropy[entropyPos + 1] & 0xFF);
+        entropyPos += 2;
+        return v;
+    }
+
+    private boolean nextBit() {
+        if (entropyPos >= entropy.length) refill();
+        return (entropy[entropyPos++] & 1) != 0;
+    }
+
+    private int nextInt(int bound) {
+        return (int) (((long) next16() * bound) >>> 16);
+    }
+
+    private void refill() {
+        secureRandom.nextBytes(entropy);
+        entropyPos = 0;
+    }
+}
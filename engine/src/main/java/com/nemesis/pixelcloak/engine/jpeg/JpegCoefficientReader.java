@@ -0,0 +1,366 @@
+package com.nemesis.pixelcloak.engine.jpeg;
+
+import com.nemesis.pixelcloak.engine.ExifOrientation;
+import com.nemesis.pixelcloak.engine.MetadataStripper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Entropy-decodes a baseline or extended sequential Huffman JPEG to quantised DCT
+ * coefficients. No inverse DCT is performed.
+ */
+public final class JpegCoefficientReader {
+    private static final class HuffmanDecoder {
+        final int[] maxCode = new int[18];
+        final int[] valPtr = new int[17];
+        final int[] minCode = new int[17];
+        final int[] values;
+        /** Lookahead on 8 bits: (length << 8) | symbol, or 0 when the code is longer. */
+        final int[] look = new int[256];
+
+        HuffmanDecoder(int[] bits, int[] values) throws IOException {
+            this.values = values;
+            int code = 0, k = 0;
+            for (int len = 1; len <= 16; len++) {
+                valPtr[len] = k;
+                minCode[len] = code;
+                code += bits[len];
+                k += bits[len];
+                maxCode[len] = bits[len] == 0 ? -1 : code - 1;
+                if (code > (1 << len)) throw new IOException("Corrupt Huffman table");
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+
+            code = 0;
+            k = 0;
+            for (int len = 1; len <= 8; len++) {
+                for (int i = 0; i < bits[len]; i++, k++, code++) {
+                    int shift = 8 - len;
+                    int base = code << shift;
+                    for (int j = 0; j < (1 << shift); j++) look[base + j] = (len << 8) | values[k];
+                }
+                code <<= 1;
+            }
+        }
+    }
+
+    private final DataInputStream in;
+    private final HuffmanDecoder[] dcTables = new HuffmanDecoder[4];
+    private final HuffmanDecoder[] acTables = new HuffmanDecoder[4];
+    private final int[][] quantTables = new int[4][];
+    private final ArrayList<JpegCoefficients.Segment> keptSegments = new ArrayList<>();
+    private int pendingOrientation = 1;
+    private JpegCoefficients frame;
+    private int restartInterval;
+
+    private int bitBuf;
+    private int bitCnt;
+    private int pendingMarker = -1;
+
+    private JpegCoefficientReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    public static JpegCoefficients read(InputStream in) throws IOException {
+        return new JpegCoefficientReader(in).readFrame();
+    }
+
+    private JpegCoefficients readFrame() throws IOException {
+        if (in.readUnsignedShort() != 0xFFD8) throw new IOException("Not a JPEG file");
+        int code = nextMarker();
+        while (true) {
+            switch (code) {
+                case 0xD9:
+                    if (frame == null) throw new IOException("JPEG has no frame");
+                    return frame;
+                case 0xC0:
+                case 0xC1:
+                    readFrameHeader();
+                    code = nextMarker();
+                    break;
+                case 0xC4:
+                    readHuffmanTables();
+                    code = nextMarker();
+                    break;
+                case 0xDB:
+                    readQuantTables();
+                    code = nextMarker();
+                    break;
+                case 0xDD:
+                    in.readUnsignedShort();
+                    restartInterval = in.readUnsignedShort();
+                    code = nextMarker();
+                    break;
+                case 0xDA:
+                    code = readScan();
+                    break;
+                case 0xC2: case 0xC3: case 0xC5: case 0xC6: case 0xC7:
+                case 0xC9: case 0xCA: case 0xCB: case 0xCD: case 0xCE: case 0xCF:
+                    throw new UnsupportedJpegException("Only sequential Huffman JPEGs are supported");
+                default:
+                    if (code == 0x01 || (code >= 0xD0 && code <= 0xD7)) {
+                        code = nextMarker();
+                        break;
+                    }
+                    readOtherSegment(code);
+                    code = nextMarker();
+            }
+        }
+    }
+
+    private void readOtherSegment(int code) throws IOException {
+        int len = in.readUnsignedShort() - 2;
+        if (len < 0) throw new IOException("Corrupt JPEG segment length");
+        byte[] payload = new byte[len];
+        in.readFully(payload);
+        if (code == 0xE1) {
+            int v = ExifOrientation.orientationValueFromApp1(payload);
+            if (v > 0) pendingOrientation = v;
+        }
+        if (code >= 0xE0 && code <= 0xEF && !MetadataStripper.isMetadataSegment(code, payload, len)) {
+            keptSegments.add(new JpegCoefficients.Segment(code, payload));
+        }
+    }
+
+    private void readFrameHeader() throws IOException {
+        if (frame != null) throw new UnsupportedJpegException("Multiple frames are not supported");
+        int len = in.readUnsignedShort();
+        int precision = in.readUnsignedByte();
+        if (precision != 8) throw new UnsupportedJpegException("Only 8-bit JPEGs are supported");
+        int height = in.readUnsignedShort();
+        int width = in.readUnsignedShort();
+        int nf = in.readUnsignedByte();
+        if (height == 0 || width == 0) throw new UnsupportedJpegException("DNL-sized JPEGs are not supported");
+        if (nf < 1 || nf > 4 || len != 8 + 3 * nf) throw new IOException("Corrupt frame header");
+        int[][] spec = new int[nf][];
+        for (int i = 0; i < nf; i++) {
+            int id = in.readUnsignedByte();
+            int hv = in.readUnsignedByte();
+            int tq = in.readUnsignedByte();
+            int h = hv >> 4, v = hv & 15;
+            if (h < 1 || h > 4 || v < 1 || v > 4 || tq > 3) throw new IOException("Corrupt component spec");
+            spec[i] = new int[]{id, h, v, tq};
+        }
+        frame = new JpegCoefficients(width, height, spec);
+        frame.keptSegments.addAll(keptSegments);
+        keptSegments.clear();
+    }
+
+    private void readQuantTables() throws IOException {
+        int len = in.readUnsignedShort() - 2;
+        while (len > 0) {
+            int pt = in.readUnsignedByte();
+            int pq = pt >> 4, tq = pt & 15;
+            if (tq > 3) throw new IOException("Corrupt quantisation table");
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) table[k] = pq == 0 ? in.readUnsignedByte() : in.readUnsignedShort();
+            quantTables[tq] = table;
+            len -= 1 + 64 * (pq == 0 ? 1 : 2);
+        }
+    }
+
+    private void readHuffmanTables() throws IOException {
+        int len = in.readUnsignedShort() - 2;
+        while (len > 0) {
+            int tc = in.readUnsignedByte();
+            int cls = tc >> 4, id = tc & 15;
+            if (cls > 1 || id > 3) throw new IOException("Corrupt Huffman table");
+            int[] bits = new int[17];
+            int total = 0;
+            for (int i = 1; i <= 16; i++) {
+                bits[i] = in.readUnsignedByte();
+                total += bits[i];
+            }
+            if (total > 256) throw new IOException("Corrupt Huffman table");
+            int[] values = new int[total];
+            for (int i = 0; i < total; i++) values[i] = in.readUnsignedByte();
+            HuffmanDecoder d = new HuffmanDecoder(bits, values);
+            if (cls == 0) dcTables[id] = d;
+            else acTables[id] = d;
+            len -= 17 + total;
+        }
+    }
+
+    private int readScan() throws IOException {
+        if (frame == null) throw new IOException("Scan before frame header");
+        for (int i = 0; i < 4; i++) {
+            if (quantTables[i] != null) frame.quant[i] = quantTables[i];
+        }
+        frame.exifOrientation = pendingOrientation;
+        frame.keptSegments.addAll(keptSegments);
+        keptSegments.clear();
+
+        in.readUnsignedShort();
+        int ns = in.readUnsignedByte();
+        JpegCoefficients.Component[] comps = new JpegCoefficients.Component[ns];
+        HuffmanDecoder[] dc = new HuffmanDecoder[ns];
+        HuffmanDecoder[] ac = new HuffmanDecoder[ns];
+        for (int i = 0; i < ns; i++) {
+            int id = in.readUnsignedByte();
+            int t = in.readUnsignedByte();
+            for (JpegCoefficients.Component c : frame.components) if (c.id == id) comps[i] = c;
+            if (comps[i] == null) throw new IOException("Scan references unknown component");
+            dc[i] = dcTables[t >> 4];
+            ac[i] = acTables[t & 15];
+            if (dc[i] == null || ac[i] == null) throw new IOException("Scan references undefined Huffman table");
+        }
+        int ss = in.readUnsignedByte(), se = in.readUnsignedByte(), ahal = in.readUnsignedByte();
+        if (ss != 0 || se != 63 || ahal != 0) throw new UnsupportedJpegException("Spectral selection is not supported");
+
+        bitBuf = 0;
+        bitCnt = 0;
+        pendingMarker = -1;
+        int[] pred = new int[ns];
+
+        int unitsX, unitsY;
+        if (ns == 1) {
+            unitsX = frame.visibleBlocksW(comps[0]);
+            unitsY = frame.visibleBlocksH(comps[0]);
+        } else {
+            unitsX = frame.mcusX;
+            unitsY = frame.mcusY;
+        }
+        int total = unitsX * unitsY;
+        int restartsLeft = restartInterval;
+
+        for (int u = 0; u < total; u++) {
+            if (restartInterval > 0) {
+                if (restartsLeft == 0) {
+                    processRestart();
+                    Arrays.fill(pred, 0);
+                    restartsLeft = restartInterval;
+                }
+                restartsLeft--;
+            }
+            int ux = u % unitsX, uy = u / unitsX;
+            if (ns == 1) {
+                JpegCoefficients.Component c = comps[0];
+                decodeBlock(c.coef, ((uy * c.blocksW) + ux) * 64, dc[0], ac[0], pred, 0);
+            } else {
+                for (int i = 0; i < ns; i++) {
+                    JpegCoefficients.Component c = comps[i];
+                    for (int by = 0; by < c.v; by++) {
+                        for (int bx = 0; bx < c.h; bx++) {
+                            int row = uy * c.v + by, col = ux * c.h + bx;
+                            decodeBlock(c.coef, (row * c.blocksW + col) * 64, dc[i], ac[i], pred, i);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (pendingMarker >= 0) return pendingMarker;
+        return nextMarkerAfterScan();
+    }
+
+    private void decodeBlock(short[] out, int off, HuffmanDecoder dc, HuffmanDecoder ac, int[] pred, int ci) throws IOException {
+        int t = decodeSymbol(dc);
+        int diff = t == 0 ? 0 : extend(receive(t), t);
+        pred[ci] += diff;
+        out[off] = (short) pred[ci];
+        for (int k = 1; k < 64; ) {
+            int rs = decodeSymbol(ac);
+            int r = rs >> 4, s = rs & 15;
+            if (s == 0) {
+                if (r != 15) break;
+                k += 16;
+                continue;
+            }
+            k += r;
+            if (k > 63) throw new IOException("Corrupt JPEG block");
+            out[off + k] = (short) extend(receive(s), s);
+            k++;
+        }
+    }
+
+    private int decodeSymbol(HuffmanDecoder h) throws IOException {
+        fillBits();
+        int look = h.look[bitBuf >>> 24];
+        if (look != 0) {
+            skipBits(look >> 8);
+            return look & 0xFF;
+        }
+        int code = bitBuf >>> 23;
+        int len = 9;
+        while (code > h.maxCode[len]) {
+            len++;
+            if (len > 16) throw new IOException("Corrupt Huffman code");
+            code = bitBuf >>> (32 - len);
+        }
+        skipBits(len);
+        return h.values[h.valPtr[len] + code - h.minCode[len]];
+    }
+
+    private int receive(int n) throws IOException {
+        fillBits();
+        int v = bitBuf >>> (32 - n);
+        skipBits(n);
+        return v;
+    }
+
+    private static int extend(int v, int t) {
+        return v < (1 << (t - 1)) ? v - (1 << t) + 1 : v;
+    }
+
+    private void skipBits(int n) {
+        bitBuf <<= n;
+        bitCnt -= n;
+    }
+
+    private void fillBits() throws IOException {
+        while (bitCnt <= 24) {
+            bitBuf |= nextDataByte() << (24 - bitCnt);
+            bitCnt += 8;
+        }
+    }
+
+    private int nextDataByte() throws IOException {
+        if (pendingMarker >= 0) return 0;
+        int b = in.read();
+        if (b < 0) {
+            pendingMarker = 0xD9;
+            return 0;
+        }
+        if (b != 0xFF) return b;
+        int b2 = in.read();
+        while (b2 == 0xFF) b2 = in.read();
+        if (b2 == 0) return 0xFF;
+        pendingMarker = b2 < 0 ? 0xD9 : b2;
+        return 0;
+    }
+
+    private void processRestart() throws IOException {
+        bitBuf = 0;
+        bitCnt = 0;
+        if (pendingMarker < 0) pendingMarker = nextMarkerAfterScan();
+        if (pendingMarker < 0xD0 || pendingMarker > 0xD7) throw new IOException("Missing JPEG restart marker");
+        pendingMarker = -1;
+    }
+
+    private int nextMarkerAfterScan() throws IOException {
+        while (true) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated JPEG");
+            if (b != 0xFF) continue;
+            int code = in.read();
+            while (code == 0xFF) code = in.read();
+            if (code < 0) throw new EOFException("Truncated JPEG");
+            if (code != 0) return code;
+        }
+    }
+
+    private int nextMarker() throws IOException {
+        int b = in.readUnsignedByte();
+        if (b != 0xFF) throw new IOException("Expected JPEG marker");
+        int code = in.readUnsignedByte();
+        while (code == 0xFF) code = in.readUnsignedByte();
+        return code;
+    }
+}
@@ -0,0 +1,351 @@
+package com.nemesis.pixelcloak.engine.jpeg;
+
+import com.nemesis.pixelcloak.engine.ExifOrientation;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Entropy-encodes quantised coefficients back to a sequential JPEG. Huffman tables are
+ * rebuilt from the actual symbol statistics, so perturbed coefficients never fall outside
+ * the tables and the output is usually smaller than with the stock tables.
+ */
+public final class JpegCoefficientWriter {
+    private static final int MAX_BLOCKS_PER_MCU = 10;
+
+    private static final class HuffmanEncoder {
+        final int[] code = new int[256];
+        final int[] size = new int[256];
+        final int[] bits = new int[17];
+        int[] values;
+
+        HuffmanEncoder(long[] freq) {
+            buildLengths(freq);
+            int c = 0, k = 0;
+            for (int len = 1; len <= 16; len++) {
+                for (int i = 0; i < bits[len]; i++, k++) {
+                    code[values[k]] = c++;
+                    size[values[k]] = len;
+                }
+                c <<= 1;
+            }
+        }
+
+        /** JPEG Annex K.2: Huffman code lengths limited to 16 bits. */
+        private void buildLengths(long[] symbolFreq) {
+            long[] freq = new long[257];
+            System.arraycopy(symbolFreq, 0, freq, 0, 256);
+            freq[256] = 1;
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+
+            while (true) {
+                int c1 = -1, c2 = -1;
+                long v1 = Long.MAX_VALUE, v2 = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] == 0) continue;
+                    if (freq[i] <= v1) {
+                        v2 = v1;
+                        c2 = c1;
+                        v1 = freq[i];
+                        c1 = i;
+                    } else if (freq[i] <= v2) {
+                        v2 = freq[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) break;
+
+                freq[c1] += freq[c2];
+                freq[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] count = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) count[Math.min(32, codeSize[i])]++;
+            }
+            for (int i = 32; i > 16; i--) {
+                while (count[i] > 0) {
+                    int j = i - 2;
+                    while (count[j] == 0) j--;
+                    count[i] -= 2;
+                    count[i - 1]++;
+                    count[j + 1] += 2;
+                    count[j]--;
+                }
+            }
+            int i = 16;
+            while (count[i] == 0) i--;
+            count[i]--;
+
+            int total = 0;
+            for (int len = 1; len <= 16; len++) {
+                bits[len] = count[len];
+                total += count[len];
+            }
+            values = new int[total];
+            int k = 0;
+            for (int len = 1; len <= 32 && k < total; len++) {
+                for (int s = 0; s < 256 && k < total; s++) {
+                    if (codeSize[s] == len) values[k++] = s;
+                }
+            }
+        }
+    }
+
+    private interface SymbolSink {
+        void dc(int comp, int symbol, int extra, int extraBits) throws IOException;
+
+        void ac(int comp, int symbol, int extra, int extraBits) throws IOException;
+    }
+
+    private final JpegCoefficients frame;
+    private final OutputStream out;
+    private int bitBuf;
+    private int bitCnt;
+
+    private JpegCoefficientWriter(JpegCoefficients frame, OutputStream out) {
+        this.frame = frame;
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    /**
+     * Writes {@code frame} without any metadata besides the segments it carries over. An
+     * orientation value above 1 is recorded in a minimal EXIF block.
+     */
+    public static void write(JpegCoefficients frame, OutputStream out, int exifOrientation) throws IOException {
+        new JpegCoefficientWriter(frame, out).writeFrame(exifOrientation);
+    }
+
+    private void writeFrame(int exifOrientation) throws IOException {
+        marker(0xD8);
+        boolean orientationWritten = exifOrientation <= 1;
+        for (JpegCoefficients.Segment s : frame.keptSegments) {
+            if (!orientationWritten && s.marker != 0xE0) {
+                segment(0xE1, ExifOrientation.minimalApp1(exifOrientation));
+                orientationWritten = true;
+            }
+            segment(s.marker, s.payload);
+        }
+        if (!orientationWritten) segment(0xE1, ExifOrientation.minimalApp1(exifOrientation));
+
+        boolean extended = false;
+        boolean[] used = new boolean[4];
+        for (JpegCoefficients.Component c : frame.components) used[c.tq] = true;
+        for (int t = 0; t < 4; t++) {
+            if (!used[t]) continue;
+            int[] q = frame.quant[t];
+            if (q == null) throw new IOException("Missing quantisation table " + t);
+            boolean wide = false;
+            for (int v : q) wide |= v > 255;
+            extended |= wide;
+            byte[] p = new byte[1 + 64 * (wide ? 2 : 1)];
+            p[0] = (byte) ((wide ? 0x10 : 0) | t);
+            for (int k = 0, o = 1; k < 64; k++) {
+                if (wide) p[o++] = (byte) (q[k] >> 8);
+                p[o++] = (byte) q[k];
+            }
+            segment(0xDB, p);
+        }
+
+        int nf = frame.components.length;
+        byte[] sof = new byte[6 + 3 * nf];
+        sof[0] = 8;
+        sof[1] = (byte) (frame.height >> 8);
+        sof[2] = (byte) frame.height;
+        sof[3] = (byte) (frame.width >> 8);
+        sof[4] = (byte) frame.width;
+        sof[5] = (byte) nf;
+        for (int i = 0; i < nf; i++) {
+            JpegCoefficients.Component c = frame.components[i];
+            sof[6 + 3 * i] = (byte) c.id;
+            sof[7 + 3 * i] = (byte) ((c.h << 4) | c.v);
+            sof[8 + 3 * i] = (byte) c.tq;
+        }
+        segment(extended ? 0xC1 : 0xC0, sof);
+
+        int blocksPerMcu = 0;
+        for (JpegCoefficients.Component c : frame.components) blocksPerMcu += c.h * c.v;
+        if (nf > 1 && blocksPerMcu <= MAX_BLOCKS_PER_MCU) {
+            writeScan(frame.components);
+        } else {
+            for (JpegCoefficients.Component c : frame.components) {
+                writeScan(new JpegCoefficients.Component[]{c});
+            }
+        }
+
+        marker(0xD9);
+        out.flush();
+    }
+
+    private void writeScan(JpegCoefficients.Component[] comps) throws IOException {
+        final int ns = comps.length;
+        final int[] table = new int[ns];
+        for (int i = 0; i < ns; i++) table[i] = comps[i] == frame.components[0] ? 0 : 1;
+
+        final long[][] dcFreq = new long[2][256];
+        final long[][] acFreq = new long[2][256];
+        encodeScan(comps, new SymbolSink() {
+            @Override
+            public void dc(int comp, int symbol, int extra, int extraBits) {
+                dcFreq[table[comp]][symbol]++;
+            }
+
+            @Override
+            public void ac(int comp, int symbol, int extra, int extraBits) {
+                acFreq[table[comp]][symbol]++;
+            }
+        });
+
+        final HuffmanEncoder[] dc = new HuffmanEncoder[2];
+        final HuffmanEncoder[] ac = new HuffmanEncoder[2];
+        for (int t = 0; t < 2; t++) {
+            boolean usedTable = false;
+            for (int i = 0; i < ns; i++) usedTable |= table[i] == t;
+            if (!usedTable) continue;
+            dc[t] = new HuffmanEncoder(dcFreq[t]);
+            ac[t] = new HuffmanEncoder(acFreq[t]);
+            huffmanSegment(0x00 | t, dc[t]);
+            huffmanSegment(0x10 | t, ac[t]);
+        }
+
+        byte[] sos = new byte[4 + 2 * ns];
+        sos[0] = (byte) ns;
+        for (int i = 0; i < ns; i++) {
+            sos[1 + 2 * i] = (byte) comps[i].id;
+            sos[2 + 2 * i] = (byte) ((table[i] << 4) | table[i]);
+        }
+        sos[1 + 2 * ns] = 0;
+        sos[2 + 2 * ns] = 63;
+        sos[3 + 2 * ns] = 0;
+        segment(0xDA, sos);
+
+        bitBuf = 0;
+        bitCnt = 0;
+        encodeScan(comps, new SymbolSink() {
+            @Override
+            public void dc(int comp, int symbol, int extra, int extraBits) throws IOException {
+                HuffmanEncoder h = dc[table[comp]];
+                putBits(h.code[symbol], h.size[symbol]);
+                if (extraBits > 0) putBits(extra, extraBits);
+            }
+
+            @Override
+            public void ac(int comp, int symbol, int extra, int extraBits) throws IOException {
+                HuffmanEncoder h = ac[table[comp]];
+                putBits(h.code[symbol], h.size[symbol]);
+                if (extraBits > 0) putBits(extra, extraBits);
+            }
+        });
+        if (bitCnt > 0) putBits((1 << (8 - bitCnt)) - 1, 8 - bitCnt);
+    }
+
+    private void encodeScan(JpegCoefficients.Component[] comps, SymbolSink sink) throws IOException {
+        int ns = comps.length;
+        int[] pred = new int[ns];
+        if (ns == 1) {
+            JpegCoefficients.Component c = comps[0];
+            int bw = frame.visibleBlocksW(c), bh = frame.visibleBlocksH(c);
+            for (int by = 0; by < bh; by++) {
+                for (int bx = 0; bx < bw; bx++) {
+                    encodeBlock(c.coef, (by * c.blocksW + bx) * 64, 0, pred, sink);
+                }
+            }
+            return;
+        }
+        for (int my = 0; my < frame.mcusY; my++) {
+            for (int mx = 0; mx < frame.mcusX; mx++) {
+                for (int i = 0; i < ns; i++) {
+                    JpegCoefficients.Component c = comps[i];
+                    for (int by = 0; by < c.v; by++) {
+                        for (int bx = 0; bx < c.h; bx++) {
+                            int row = my * c.v + by, col = mx * c.h + bx;
+                            encodeBlock(c.coef, (row * c.blocksW + col) * 64, i, pred, sink);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void encodeBlock(short[] coef, int off, int comp, int[] pred, SymbolSink sink) throws IOException {
+        int dc = coef[off];
+        int diff = dc - pred[comp];
+        pred[comp] = dc;
+        int nbits = magnitudeBits(diff);
+        sink.dc(comp, nbits, valueBits(diff, nbits), nbits);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int v = coef[off + k];
+            if (v == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                sink.ac(comp, 0xF0, 0, 0);
+                run -= 16;
+            }
+            int s = magnitudeBits(v);
+            sink.ac(comp, (run << 4) | s, valueBits(v, s), s);
+            run = 0;
+        }
+        if (run > 0) sink.ac(comp, 0x00, 0, 0);
+    }
+
+    private static int magnitudeBits(int v) {
+        int a = Math.abs(v);
+        return a == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(a);
+    }
+
+    private static int valueBits(int v, int nbits) {
+        return v >= 0 ? v : v + (1 << nbits) - 1;
+    }
+
+    private void huffmanSegment(int tc, HuffmanEncoder h) throws IOException {
+        byte[] p = new byte[17 + h.values.length];
+        p[0] = (byte) tc;
+        for (int i = 1; i <= 16; i++) p[i] = (byte) h.bits[i];
+        for (int i = 0; i < h.values.length; i++) p[17 + i] = (byte) h.values[i];
+        segment(0xC4, p);
+    }
+
+    private void putBits(int value, int n) throws IOException {
+        bitBuf = (bitBuf << n) | (value & ((1 << n) - 1));
+        bitCnt += n;
+        while (bitCnt >= 8) {
+            int b = (bitBuf >> (bitCnt - 8)) & 0xFF;
+            out.write(b);
+            if (b == 0xFF) out.write(0);
+            bitCnt -= 8;
+        }
+        bitBuf &= (1 << bitCnt) - 1;
+    }
+
+    private void marker(int code) throws IOException {
+        out.write(0xFF);
+        out.write(code);
+    }
+
+    private void segment(int code, byte[] payload) throws IOException {
+        marker(code);
+        int len = payload.length + 2;
+        out.write(len >> 8);
+        out.write(len);
+        out.write(payload);
+    }
+}
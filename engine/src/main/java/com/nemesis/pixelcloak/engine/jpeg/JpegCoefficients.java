@@ -0,0 +1,124 @@
+package com.nemesis.pixelcloak.engine.jpeg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Quantised DCT coefficients of a sequential JPEG. Every block holds 64 coefficients in
+ * zigzag order, the order used by the bitstream and the quantisation tables.
+ */
+public final class JpegCoefficients {
+    public static final int[] ZIGZAG_TO_NATURAL = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    public static final class Component {
+        public final int id;
+        public final int h, v;
+        public int tq;
+        /** Block grid padded to whole MCUs. */
+        public final int blocksW, blocksH;
+        public final short[] coef;
+
+        Component(int id, int h, int v, int tq, int blocksW, int blocksH) {
+            this.id = id;
+            this.h = h;
+            this.v = v;
+            this.tq = tq;
+            this.blocksW = blocksW;
+            this.blocksH = blocksH;
+            this.coef = new short[blocksW * blocksH * 64];
+        }
+
+        Component(Component src) {
+            this.id = src.id;
+            this.h = src.h;
+            this.v = src.v;
+            this.tq = src.tq;
+            this.blocksW = src.blocksW;
+            this.blocksH = src.blocksH;
+            this.coef = src.coef.clone();
+        }
+    }
+
+    /** A marker segment carried over verbatim: JFIF, ICC profile or Adobe. */
+    public static final class Segment {
+        public final int marker;
+        public final byte[] payload;
+
+        public Segment(int marker, byte[] payload) {
+            this.marker = marker;
+            this.payload = payload;
+        }
+    }
+
+    public final int width, height;
+    public final int hMax, vMax;
+    public final int mcusX, mcusY;
+    public final Component[] components;
+    /** Quantisation tables indexed by Tq, zigzag order; null when undefined. */
+    public final int[][] quant = new int[4][];
+    public final List<Segment> keptSegments = new ArrayList<>();
+    public int exifOrientation = 1;
+
+    JpegCoefficients(int width, int height, int[][] compSpec) {
+        this.width = width;
+        this.height = height;
+        int hm = 1, vm = 1;
+        for (int[] c : compSpec) {
+            hm = Math.max(hm, c[1]);
+            vm = Math.max(vm, c[2]);
+        }
+        this.hMax = hm;
+        this.vMax = vm;
+        this.mcusX = (width + 8 * hm - 1) / (8 * hm);
+        this.mcusY = (height + 8 * vm - 1) / (8 * vm);
+        this.components = new Component[compSpec.length];
+        for (int i = 0; i < compSpec.length; i++) {
+            int[] c = compSpec[i];
+            components[i] = new Component(c[0], c[1], c[2], c[3], mcusX * c[1], mcusY * c[2]);
+        }
+    }
+
+    private JpegCoefficients(JpegCoefficients src) {
+        this.width = src.width;
+        this.height = src.height;
+        this.hMax = src.hMax;
+        this.vMax = src.vMax;
+        this.mcusX = src.mcusX;
+        this.mcusY = src.mcusY;
+        this.components = new Component[src.components.length];
+        for (int i = 0; i < components.length; i++) components[i] = new Component(src.components[i]);
+        for (int i = 0; i < 4; i++) quant[i] = src.quant[i] == null ? null : src.quant[i].clone();
+        keptSegments.addAll(src.keptSegments);
+        exifOrientation = src.exifOrientation;
+    }
+
+    public JpegCoefficients copy() {
+        return new JpegCoefficients(this);
+    }
+
+    /** Blocks of component {@code c} that cover real image samples, ignoring MCU padding. */
+    public int visibleBlocksW(Component c) {
+        int cw = (width * c.h + hMax - 1) / hMax;
+        return (cw + 7) / 8;
+    }
+
+    public int visibleBlocksH(Component c) {
+        int ch = (height * c.v + vMax - 1) / vMax;
+        return (ch + 7) / 8;
+    }
+
+    public long coefficientBytes() {
+        long n = 0;
+        for (Component c : components) n += (long) c.coef.length * 2;
+        return n;
+    }
+}
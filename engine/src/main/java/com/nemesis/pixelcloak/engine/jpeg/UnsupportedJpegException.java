@@ -0,0 +1,12 @@
+package com.nemesis.pixelcloak.engine.jpeg;
+
+import java.io.IOException;
+
+/** Thrown for valid JPEGs the coefficient codec does not handle, e.g. progressive or 12-bit. */
+public class UnsupportedJpegException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public UnsupportedJpegException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,164 @@
+package com.nemesis.pixelcloak.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class DetectionSchedulerTest {
+    @Test
+    public void planCoversEachLevelWithBoundedTiles() {
+        List<int[]> tiles = DetectionScheduler.plan(4000, 3000, 1000, 1000, 0.25, Collections.emptyList());
+        assertFalse(tiles.isEmpty());
+        // Levels at half and full resolution: 2000 and 1000 pixel tiles.
+        int half = 0, full = 0;
+        for (int[] t : tiles) {
+            assertTrue(Arrays.toString(t), t[0] >= 0 && t[1] >= 0 && t[2] <= 4000 && t[3] <= 3000);
+            int side = Math.max(t[2] - t[0], t[3] - t[1]);
+            if (side == 2000) half++;
+            else if (side == 1000) full++;
+            else throw new AssertionError("unexpected tile " + Arrays.toString(t));
+        }
+        assertEquals(3 * 2, half);
+        assertEquals(5 * 4, full);
+        assertCovers(tiles, 4000, 3000, 2000);
+        assertCovers(tiles, 4000, 3000, 1000);
+    }
+
+    @Test
+    public void planSkipsTilesMostlyInsideFoundFaces() {
+        List<int[]> all = DetectionScheduler.plan(4000, 3000, 1000, 1000, 0.25, Collections.emptyList());
+        List<int[]> found = Collections.singletonList(new int[]{0, 0, 1000, 1000});
+        List<int[]> rest = DetectionScheduler.plan(4000, 3000, 1000, 1000, 0.25, found);
+        assertEquals(all.size() - 1, rest.size());
+        for (int[] t : rest) assertFalse(Arrays.equals(t, new int[]{0, 0, 1000, 1000}));
+    }
+
+    @Test
+    public void planIsEmptyWhenTheCoarsePassIsNativeResolution() {
+        assertTrue(DetectionScheduler.plan(800, 600, 1024, 1024, 0.25, Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void suppressMergesOverlapsIntoTheirUnion() {
+        List<int[]> in = new ArrayList<>();
+        in.add(new int[]{0, 0, 100, 100});
+        in.add(new int[]{10, 10, 110, 110});
+        in.add(new int[]{20, 20, 50, 50});
+        in.add(new int[]{300, 300, 340, 340});
+        in.add(new int[]{5, 5, 5, 40});
+        List<int[]> out = DetectionScheduler.suppress(in);
+
+        assertEquals(2, out.size());
+        assertArrayEquals(new int[]{0, 0, 110, 110}, out.get(0));
+        assertArrayEquals(new int[]{300, 300, 340, 340}, out.get(1));
+        assertArrayEquals("input is not modified", new int[]{0, 0, 100, 100}, in.get(0));
+    }
+
+    @Test
+    public void suppressKeepsNeighbouringFaces() {
+        List<int[]> in = new ArrayList<>();
+        in.add(new int[]{0, 0, 100, 100});
+        in.add(new int[]{80, 0, 180, 100});
+        assertEquals(2, DetectionScheduler.suppress(in).size());
+    }
+
+    @Test
+    public void toRegionScalesAndClampsToTheRegion() {
+        int[] region = {1000, 500, 3000, 1500};
+        List<int[]> boxes = Arrays.asList(new int[]{10, 20, 31, 41}, new int[]{-5, -5, 600, 300});
+        List<int[]> out = DetectionScheduler.toRegion(boxes, region, 500, 250);
+
+        assertArrayEquals(new int[]{1040, 580, 1124, 664}, out.get(0));
+        assertArrayEquals(region, out.get(1));
+    }
+
+    @Test
+    public void flatTilesAreRecognised() {
+        int[] flat = new int[64 * 48];
+        Arrays.fill(flat, 0xFF808080);
+        assertTrue(DetectionScheduler.isFlat(flat, 64, 48));
+
+        int[] busy = flat.clone();
+        Random r = new Random(3);
+        for (int i = 0; i < busy.length; i++) busy[i] = 0xFF000000 | r.nextInt(0x1000000);
+        assertFalse(DetectionScheduler.isFlat(busy, 64, 48));
+    }
+
+    @Test
+    public void detectRunsTheCoarsePassAndSkipsFlatTiles() throws Exception {
+        AtomicInteger coarse = new AtomicInteger(), tiles = new AtomicInteger();
+        DetectionScheduler.RegionDetector detector = new DetectionScheduler.RegionDetector() {
+            @Override
+            public List<int[]> detect(int[] region, int maxDim) {
+                if (region[2] - region[0] == 4000) {
+                    coarse.incrementAndGet();
+                    return Collections.singletonList(new int[]{100, 100, 300, 300});
+                }
+                tiles.incrementAndGet();
+                return Collections.singletonList(new int[]{region[0] + 10, region[1] + 10, region[0] + 60, region[1] + 60});
+            }
+
+            @Override
+            public boolean isFlat(int[] region) {
+                return region[0] > 0 || region[1] > 0;
+            }
+        };
+        DetectionScheduler s = new DetectionScheduler(1000, 1000, 0.25, 60_000, 2,
+                new AtomicBoolean(), new PipelineMetrics());
+        List<int[]> found = s.detect(4000, 3000, detector);
+
+        assertEquals(1, coarse.get());
+        // Only the tiles at the origin, one per level, have any detail.
+        assertEquals(2, tiles.get());
+        assertEquals(2, found.size());
+    }
+
+    @Test
+    public void detectWaitsForTilesStillRunningWhenTheBudgetRunsOut() throws Exception {
+        AtomicInteger running = new AtomicInteger(), started = new AtomicInteger();
+        DetectionScheduler.RegionDetector slow = (region, maxDim) -> {
+            if (region[2] - region[0] == 4000) return Collections.emptyList();
+            running.incrementAndGet();
+            started.incrementAndGet();
+            try {
+                // Ignores interrupts, as a native detector would.
+                long until = System.nanoTime() + 200_000_000L;
+                while (System.nanoTime() < until) Thread.onSpinWait();
+                return Collections.emptyList();
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+        DetectionScheduler s = new DetectionScheduler(1000, 1000, 0.25, 50, 2,
+                new AtomicBoolean(), new PipelineMetrics());
+        s.detect(4000, 3000, slow);
+
+        assertTrue(started.get() > 0);
+        assertEquals(0, running.get());
+    }
+
+    /** Every pixel of the image lies in some tile with the given long side. */
+    private static void assertCovers(List<int[]> tiles, int w, int h, int side) {
+        for (int y = 0; y < h; y += 50) {
+            for (int x = 0; x < w; x += 50) {
+                boolean in = false;
+                for (int[] t : tiles) {
+                    if (Math.max(t[2] - t[0], t[3] - t[1]) != side) continue;
+                    if (x >= t[0] && x < t[2] && y >= t[1] && y < t[3]) in = true;
+                }
+                assertTrue(x + "," + y + " at " + side, in);
+            }
+        }
+    }
+}
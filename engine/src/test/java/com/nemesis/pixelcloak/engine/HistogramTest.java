@@ -0,0 +1,64 @@
+package com.nemesis.pixelcloak.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void emptyHistogramReportsZero() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(50));
+        assertEquals(0, h.min());
+        assertEquals(0, h.max());
+        assertEquals(0.0, h.mean(), 0.0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram h = new Histogram();
+        for (int v = 0; v < 8; v++) h.record(v);
+        assertEquals(3, h.percentile(50));
+        assertEquals(7, h.percentile(100));
+        assertEquals(0, h.percentile(0));
+    }
+
+    @Test
+    public void percentilesStayWithinBucketPrecision() {
+        Histogram h = new Histogram();
+        for (int v = 1; v <= 10_000; v++) h.record(v * 1_000L);
+        assertEquals(10_000, h.count());
+        assertEquals(5_000_500.0, h.mean(), 1e-6);
+        assertWithin(5_000_000, h.percentile(50));
+        assertWithin(9_900_000, h.percentile(99));
+        assertEquals(10_000_000, h.percentile(100));
+        assertWithin(1_000, h.percentile(0));
+    }
+
+    @Test
+    public void percentilesAreClampedToRecordedRange() {
+        Histogram h = new Histogram();
+        h.record(1_000_003);
+        assertEquals(1_000_003, h.percentile(1));
+        assertEquals(1_000_003, h.percentile(99));
+    }
+
+    @Test
+    public void negativeValuesCountAsZeroAndResetClears() {
+        Histogram h = new Histogram();
+        h.record(-5);
+        assertEquals(0, h.max());
+        h.reset();
+        assertEquals(0, h.count());
+        h.record(42);
+        assertEquals(42, h.min());
+    }
+
+    /** Buckets split each power of two eight ways, so a percentile is at most 12.5% high. */
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " should be at least " + expected, actual >= expected);
+        assertTrue(actual + " should be within 12.5% of " + expected, actual <= expected * 1.125);
+    }
+}
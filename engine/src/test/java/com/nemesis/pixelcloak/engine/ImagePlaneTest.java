@@ -0,0 +1,48 @@
+package com.nemesis.pixelcloak.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImagePlaneTest {
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void closingZeroesAHeapPlaneOnce() {
+        float[] data = {1, 2, 3, 4, 5, 6};
+        ImagePlane p = ImagePlane.wrap(data, 2, 1, 3);
+        p.close();
+        p.close();
+        for (float v : data) assertEquals(0f, v, 0f);
+    }
+
+    @Test
+    public void closingAMappedPlaneTwiceIsHarmless() throws IOException {
+        File dir = tmp.newFolder();
+        ImagePlane p = ImagePlane.Buffers.mapped(dir, 16, 8, 3);
+        p.set(p.length() - 1, 7f);
+        assertEquals(7f, p.get(p.length() - 1), 0f);
+        p.close();
+        p.close();
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void rowsRoundTripThroughDirectStorage() {
+        try (ImagePlane p = ImagePlane.Buffers.direct(4, 3, 1)) {
+            float[] row = {1, 2, 3, 4};
+            p.writeRow(2, row);
+            float[] back = new float[4];
+            p.readRow(2, back);
+            assertEquals(3f, back[2], 0f);
+            p.readRow(0, back);
+            assertEquals(0f, back[0], 0f);
+        }
+    }
+}
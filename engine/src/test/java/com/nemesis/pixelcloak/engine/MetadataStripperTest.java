@@ -0,0 +1,264 @@
+package com.nemesis.pixelcloak.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetadataStripperTest {
+    private static final String SECRET = "42.3601N 71.0589W";
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void jpegLosesCommentsExifAndXmpButKeepsImageData() throws IOException {
+        byte[] clean = jpeg();
+        byte[] tagged = insertAfterSoi(clean,
+                segment(0xFE, ascii(SECRET)),
+                segment(0xE1, ascii("http://ns.adobe.com/xap/1.0/\0<x:xmpmeta>" + SECRET + "</x:xmpmeta>")));
+        tagged = concat(tagged, ascii("trailing motion photo"));
+
+        byte[] out = strip(tagged, 0);
+        assertFalse(contains(out, ascii(SECRET)));
+        assertFalse(contains(out, ascii("motion photo")));
+        assertTrue(contains(out, ascii("JFIF\0")));
+        assertEquals(0xD9, out[out.length - 1] & 0xFF);
+        assertArrayEquals(pixels(clean), pixels(out));
+    }
+
+    @Test
+    public void jpegOrientationIsCarriedOverOrReplaced() throws IOException {
+        byte[] tagged = insertAfterSoi(jpeg(), segment(0xE1, ExifOrientation.minimalApp1(6)));
+        assertEquals(90, ExifOrientation.readDegrees(new ByteArrayInputStream(
+                strip(tagged, MetadataStripper.KEEP_SOURCE_ORIENTATION))));
+        assertEquals(270, ExifOrientation.readDegrees(new ByteArrayInputStream(strip(tagged, 270))));
+        assertEquals(0, ExifOrientation.readDegrees(new ByteArrayInputStream(strip(tagged, 0))));
+    }
+
+    @Test
+    public void pngLosesTextChunks() throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(noise(), "png", png);
+        byte[] clean = png.toByteArray();
+        // Signature (8) and IHDR (8 + 13 + 4) come first.
+        int afterIhdr = 8 + 25;
+        byte[] tagged = concat(slice(clean, 0, afterIhdr),
+                chunk("tEXt", ascii("Comment\0" + SECRET)),
+                chunk("tIME", new byte[7]),
+                slice(clean, afterIhdr, clean.length));
+
+        byte[] out = strip(tagged, 0);
+        assertFalse(contains(out, ascii(SECRET)));
+        assertFalse(contains(out, ascii("tIME")));
+        assertArrayEquals(clean, out);
+    }
+
+    @Test
+    public void pngCarriesOrientationInAMinimalExifChunk() throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(noise(), "png", png);
+        byte[] clean = png.toByteArray();
+        int afterIhdr = 8 + 25;
+        byte[] tagged = concat(slice(clean, 0, afterIhdr),
+                chunk("eXIf", concat(ExifOrientation.minimalTiff(8), ascii(SECRET))),
+                slice(clean, afterIhdr, clean.length));
+
+        byte[] kept = strip(tagged, MetadataStripper.KEEP_SOURCE_ORIENTATION);
+        assertFalse(contains(kept, ascii(SECRET)));
+        assertArrayEquals(concat(slice(clean, 0, afterIhdr), chunk("eXIf", ExifOrientation.minimalTiff(8)),
+                slice(clean, afterIhdr, clean.length)), kept);
+
+        // Without an eXIf in the source, the chunk goes in before the image data.
+        byte[] rotated = strip(clean, 90);
+        assertArrayEquals(concat(slice(clean, 0, afterIhdr), chunk("eXIf", ExifOrientation.minimalTiff(6)),
+                slice(clean, afterIhdr, clean.length)), rotated);
+        assertArrayEquals(pixels(clean), pixels(rotated));
+
+        assertArrayEquals(clean, strip(tagged, 0));
+    }
+
+    @Test
+    public void webpLosesExifAndXmpAndFixesHeader() throws IOException {
+        byte[] vp8x = new byte[10];
+        vp8x[0] = 0x08 | 0x04 | 0x10;
+        byte[] image = {1, 2, 3, 4, 5};
+        byte[] webp = riff(chunk4("VP8X", vp8x), chunk4("VP8L", image),
+                chunk4("EXIF", ascii(SECRET)), chunk4("XMP ", ascii(SECRET)));
+
+        byte[] out = strip(webp, 0);
+        assertFalse(contains(out, ascii(SECRET)));
+        assertEquals(out.length - 8, le32(out, 4));
+        assertEquals(0x10, out[20]);
+        assertArrayEquals(riff(chunk4("VP8X", withFirst(vp8x, (byte) 0x10)), chunk4("VP8L", image)), out);
+    }
+
+    @Test
+    public void extendedWebpCarriesOrientationInAMinimalExifChunk() throws IOException {
+        byte[] vp8x = new byte[10];
+        vp8x[0] = 0x08 | 0x04;
+        byte[] image = {1, 2, 3, 4, 5};
+        byte[] webp = riff(chunk4("VP8X", vp8x), chunk4("VP8L", image),
+                chunk4("EXIF", concat(ExifOrientation.minimalTiff(3), ascii(SECRET))), chunk4("XMP ", ascii(SECRET)));
+
+        byte[] kept = strip(webp, MetadataStripper.KEEP_SOURCE_ORIENTATION);
+        assertArrayEquals(riff(chunk4("VP8X", withFirst(vp8x, (byte) 0x08)), chunk4("VP8L", image),
+                chunk4("EXIF", ExifOrientation.minimalTiff(3))), kept);
+        assertArrayEquals(riff(chunk4("VP8X", withFirst(vp8x, (byte) 0x08)), chunk4("VP8L", image),
+                chunk4("EXIF", ExifOrientation.minimalTiff(6))), strip(webp, 90));
+        assertArrayEquals(riff(chunk4("VP8X", withFirst(vp8x, (byte) 0)), chunk4("VP8L", image)), strip(webp, 0));
+    }
+
+    @Test
+    public void simpleWebpGainsAnExtendedHeaderForOrientation() throws IOException {
+        // VP8L header for a 100 x 50 image with alpha: width - 1 and height - 1 in 14 bits each.
+        long bits = 99 | 49L << 14 | 1L << 28;
+        byte[] lossless = concat(new byte[]{0x2F}, le32Bytes(bits), new byte[]{7, 7, 7, 7, 7});
+        byte[] webp = riff(chunk4("VP8L", lossless));
+
+        byte[] vp8x = {0x10 | 0x08, 0, 0, 0, 99, 0, 0, 49, 0, 0};
+        byte[] out = strip(webp, 270);
+        assertArrayEquals(riff(chunk4("VP8X", vp8x), chunk4("VP8L", lossless),
+                chunk4("EXIF", ExifOrientation.minimalTiff(8))), out);
+        assertEquals(out.length - 8, le32(out, 4));
+        assertArrayEquals(webp, strip(webp, 0));
+    }
+
+    @Test
+    public void webpBytesAfterTheRiffPayloadAreNotCounted() throws IOException {
+        byte[] image = {9, 8, 7, 6};
+        byte[] clean = riff(chunk4("VP8L", image));
+        byte[] webp = concat(riff(chunk4("VP8L", image), chunk4("EXIF", ascii(SECRET))),
+                chunk4("JUNK", new byte[100]));
+
+        byte[] out = strip(webp, 0);
+        assertArrayEquals(clean, out);
+        assertEquals(out.length - 8, le32(out, 4));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFormatsAreRejected() throws IOException {
+        strip(ascii("GIF89a, not a supported format"), 0);
+    }
+
+    private byte[] strip(byte[] input, int orientationDegrees) throws IOException {
+        Path src = tmp.newFile().toPath();
+        Files.write(src, input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SeekableByteChannel in = Files.newByteChannel(src)) {
+            MetadataStripper.Result r = new MetadataStripper().strip(in, Channels.newChannel(out), orientationDegrees);
+            assertEquals(out.size(), r.bytesOut);
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage noise() {
+        Random r = new Random(11);
+        BufferedImage img = new BufferedImage(24, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) for (int x = 0; x < 24; x++) img.setRGB(x, y, r.nextInt(0x1000000));
+        return img;
+    }
+
+    private static byte[] jpeg() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(noise(), "jpeg", out);
+        return out.toByteArray();
+    }
+
+    private static int[] pixels(byte[] encoded) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(encoded));
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    private static byte[] segment(int marker, byte[] payload) {
+        int len = payload.length + 2;
+        return concat(new byte[]{(byte) 0xFF, (byte) marker, (byte) (len >> 8), (byte) len}, payload);
+    }
+
+    private static byte[] insertAfterSoi(byte[] jpeg, byte[]... segments) {
+        byte[][] parts = new byte[segments.length + 2][];
+        parts[0] = slice(jpeg, 0, 2);
+        System.arraycopy(segments, 0, parts, 1, segments.length);
+        parts[parts.length - 1] = slice(jpeg, 2, jpeg.length);
+        return concat(parts);
+    }
+
+    private static byte[] chunk(String type, byte[] data) {
+        byte[] typeAndData = concat(ascii(type), data);
+        CRC32 crc = new CRC32();
+        crc.update(typeAndData);
+        long c = crc.getValue();
+        return concat(be32(data.length), typeAndData, be32(c));
+    }
+
+    private static byte[] chunk4(String fourcc, byte[] data) {
+        byte[] pad = new byte[data.length & 1];
+        return concat(ascii(fourcc), le32Bytes(data.length), data, pad);
+    }
+
+    private static byte[] riff(byte[]... chunks) {
+        byte[] body = concat(chunks);
+        return concat(ascii("RIFF"), le32Bytes(body.length + 4), ascii("WEBP"), body);
+    }
+
+    private static byte[] withFirst(byte[] b, byte first) {
+        byte[] c = b.clone();
+        c[0] = first;
+        return c;
+    }
+
+    private static byte[] be32(long v) {
+        return new byte[]{(byte) (v >> 24), (byte) (v >> 16), (byte) (v >> 8), (byte) v};
+    }
+
+    private static byte[] le32Bytes(long v) {
+        return new byte[]{(byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24)};
+    }
+
+    private static long le32(byte[] b, int off) {
+        return (b[off] & 0xFFL) | (b[off + 1] & 0xFFL) << 8 | (b[off + 2] & 0xFFL) << 16 | (b[off + 3] & 0xFFL) << 24;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] slice(byte[] b, int from, int to) {
+        byte[] c = new byte[to - from];
+        System.arraycopy(b, from, c, 0, c.length);
+        return c;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.write(p, 0, p.length);
+        return out.toByteArray();
+    }
+
+    private static boolean contains(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) if (haystack[i + j] != needle[j]) continue outer;
+            return true;
+        }
+        return false;
+    }
+}
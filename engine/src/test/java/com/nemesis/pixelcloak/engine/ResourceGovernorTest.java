@@ -0,0 +1,72 @@
+package com.nemesis.pixelcloak.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ResourceGovernorTest {
+    private static final long MB = 1024L * 1024;
+    private static final long PLENTY = 1L << 40;
+
+    @Test
+    public void smallSourcesKeepTheirSize() {
+        ResourceGovernor g = new ResourceGovernor(PLENTY, 0);
+        assertEquals(1000, g.chooseProcessDim(1000, 800, 0));
+        assertEquals(32, new ResourceGovernor(0, 0).chooseProcessDim(32, 20, 0));
+    }
+
+    @Test
+    public void heapPlanesAreCappedAtMaxDim() {
+        // A strip this thin fits the search budget at 10000 pixels long.
+        ResourceGovernor g = new ResourceGovernor(PLENTY, 0);
+        assertEquals(ResourceGovernor.MAX_PROCESS_DIM, g.chooseProcessDim(100_000, 1000, 0));
+    }
+
+    @Test
+    public void scratchSpaceLiftsTheCap() {
+        ResourceGovernor g = new ResourceGovernor(PLENTY, 0, PLENTY);
+        assertEquals(10_000, g.chooseProcessDim(100_000, 1000, 0));
+    }
+
+    @Test
+    public void shrinksToFitTheHeapThatIsLeft() {
+        ResourceGovernor g = new ResourceGovernor(64 * MB, 40 * MB);
+        int dim = g.chooseProcessDim(8000, 6000, 0);
+        int other = dim * 6000 / 8000;
+        assertTrue("dim " + dim, dim < 1000);
+        assertTrue(ResourceGovernor.workingSetBytes(dim, other) <= g.availableBytes());
+        int bigger = dim + 64;
+        assertTrue(ResourceGovernor.workingSetBytes(bigger, bigger * 6000 / 8000) > g.availableBytes() * 0.75);
+    }
+
+    @Test
+    public void fixedAllocationsLeaveLessForProcessing() {
+        ResourceGovernor g = new ResourceGovernor(32 * MB, 0);
+        int free = g.chooseProcessDim(8000, 6000, 0);
+        int withOutput = g.chooseProcessDim(8000, 6000, 8 * MB);
+        assertTrue(withOutput + " < " + free, withOutput < free);
+    }
+
+    @Test
+    public void searchBudgetBoundsPixelsHoweverMuchMemoryThereIs() {
+        // The search is single-threaded, so only its time budget limits a large heap or scratch.
+        assertEquals(1000, new ResourceGovernor(PLENTY, 0).chooseProcessDim(8000, 8000, 0));
+        assertEquals(1000, new ResourceGovernor(PLENTY, 0, PLENTY).chooseProcessDim(8000, 8000, 0));
+    }
+
+    @Test
+    public void admitsOnlyWhatFitsWithHeadroom() {
+        ResourceGovernor g = new ResourceGovernor(256 * MB, 128 * MB);
+        assertTrue(g.admits(96 * MB));
+        assertFalse(g.admits(97 * MB));
+    }
+
+    @Test
+    public void neverGoesBelowTheMinimum() {
+        ResourceGovernor g = new ResourceGovernor(MB, 2 * MB);
+        assertEquals(0, g.availableBytes());
+        assertEquals(ResourceGovernor.MIN_PROCESS_DIM, g.chooseProcessDim(4000, 3000, 0));
+    }
+}
@@ -0,0 +1,63 @@
+package com.nemesis.pixelcloak.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SkinToneFaceDetectorTest {
+    static final int SKIN = 0xFFE0AD8E;
+    static final int GREY = 0xFF606870;
+
+    @Test
+    public void findsASkinOvalOnAPlainBackground() {
+        int[] img = fill(200, 150, GREY);
+        oval(img, 200, 120, 60, 20, 32);
+        List<int[]> faces = new SkinToneFaceDetector().detect(img, 200, 150, 0);
+
+        assertEquals(1, faces.size());
+        int[] b = faces.get(0);
+        // Covers the whole oval, without growing past a couple of window steps around it.
+        assertTrue(Arrays.toString(b), b[0] <= 100 && b[1] <= 28 && b[2] >= 141 && b[3] >= 93);
+        assertTrue(Arrays.toString(b), (b[2] - b[0]) * (b[3] - b[1]) <= 4 * 41 * 65);
+    }
+
+    @Test
+    public void ignoresImagesWithoutSkinAndSkinWalls() {
+        SkinToneFaceDetector d = new SkinToneFaceDetector();
+        assertTrue(d.detect(fill(120, 90, GREY), 120, 90, 0).isEmpty());
+        assertTrue(d.detect(fill(120, 90, SKIN), 120, 90, 0).isEmpty());
+    }
+
+    @Test
+    public void reportsBoxesInTheRotatedView() {
+        int w = 200, h = 150;
+        int[] img = fill(w, h, GREY);
+        oval(img, w, 50, 70, 20, 26);
+        SkinToneFaceDetector d = new SkinToneFaceDetector();
+        int[] upright = d.detect(img, w, h, 0).get(0);
+        int[] rotated = d.detect(img, w, h, 90).get(0);
+        assertArrayEquals(Orientation.rotateBox(upright, w, h, 90), rotated);
+    }
+
+    static int[] fill(int w, int h, int argb) {
+        int[] img = new int[w * h];
+        Arrays.fill(img, argb);
+        return img;
+    }
+
+    /** Paints an upright skin-coloured ellipse centred on {@code cx, cy}. */
+    static void oval(int[] img, int w, int cx, int cy, int rx, int ry) {
+        int h = img.length / w;
+        for (int y = Math.max(0, cy - ry); y <= Math.min(h - 1, cy + ry); y++) {
+            for (int x = Math.max(0, cx - rx); x <= Math.min(w - 1, cx + rx); x++) {
+                double dx = (double) (x - cx) / rx, dy = (double) (y - cy) / ry;
+                if (dx * dx + dy * dy <= 1) img[y * w + x] = SKIN;
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.nemesis.pixelcloak.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class XxHash64Test {
+    private static long hash(String s) throws IOException {
+        return XxHash64.hash(new ByteArrayInputStream(s.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void matchesReferenceVectors() throws IOException {
+        assertEquals(0xEF46DB3751D8E999L, hash(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+        // One full 32-byte stripe plus a 7-byte tail.
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void digestDoesNotDependOnHowInputIsSplit() throws IOException {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 31 + 7);
+        long whole = XxHash64.hash(new ByteArrayInputStream(data));
+
+        XxHash64 bytewise = new XxHash64();
+        for (byte b : data) bytewise.update(b & 0xFF);
+        assertEquals(whole, bytewise.digest());
+
+        XxHash64 ragged = new XxHash64();
+        int off = 0;
+        for (int len = 1; off < data.length; len = len * 3 % 67 + 1) {
+            int n = Math.min(len, data.length - off);
+            ragged.update(data, off, n);
+            off += n;
+        }
+        assertEquals(whole, ragged.digest());
+    }
+
+    @Test
+    public void countsTheBytesReadFromAStream() throws IOException {
+        byte[] data = new byte[200_000];
+        XxHash64 h = new XxHash64();
+        h.update(new ByteArrayInputStream(data));
+        assertEquals(data.length, h.length());
+        assertEquals(XxHash64.hash(new ByteArrayInputStream(data)), h.digest());
+    }
+}
@@ -0,0 +1,126 @@
+package com.nemesis.pixelcloak.engine.jpeg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+
+public class JpegCoefficientsTest {
+    @Test
+    public void flatGreyDecodesToTheExpectedCoefficients() throws IOException {
+        BufferedImage img = new BufferedImage(16, 16, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 16; y++) for (int x = 0; x < 16; x++) img.getRaster().setSample(x, y, 0, 200);
+        JpegCoefficients c = JpegCoefficientReader.read(new ByteArrayInputStream(encode(img, false)));
+
+        assertEquals(16, c.width);
+        assertEquals(16, c.height);
+        assertEquals(1, c.components.length);
+        JpegCoefficients.Component y = c.components[0];
+        assertEquals(2, y.blocksW);
+        assertEquals(2, y.blocksH);
+        // A flat block only has a DC term: 8 * (200 - 128), quantised by the table's first entry.
+        int dc = Math.round(8f * (200 - 128) / c.quant[y.tq][0]);
+        for (int b = 0; b < 4; b++) {
+            assertEquals(dc, y.coef[b * 64]);
+            for (int k = 1; k < 64; k++) assertEquals(0, y.coef[b * 64 + k]);
+        }
+    }
+
+    @Test
+    public void rewritingKeepsCoefficientsAndPixels() throws IOException {
+        BufferedImage img = noise(41, 23, 7);
+        byte[] original = encode(img, false);
+        JpegCoefficients first = JpegCoefficientReader.read(new ByteArrayInputStream(original));
+        assertEquals(3, first.components.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegCoefficientWriter.write(first, out, 1);
+        byte[] rewritten = out.toByteArray();
+        JpegCoefficients second = JpegCoefficientReader.read(new ByteArrayInputStream(rewritten));
+
+        assertEquals(first.width, second.width);
+        assertEquals(first.height, second.height);
+        for (int i = 0; i < first.components.length; i++) {
+            assertArrayEquals(first.components[i].coef, second.components[i].coef);
+            assertArrayEquals(first.quant[first.components[i].tq], second.quant[second.components[i].tq]);
+        }
+        assertArrayEquals(pixels(ImageIO.read(new ByteArrayInputStream(original))),
+                pixels(ImageIO.read(new ByteArrayInputStream(rewritten))));
+    }
+
+    @Test
+    public void orientationIsWrittenAndReadBack() throws IOException {
+        JpegCoefficients c = JpegCoefficientReader.read(new ByteArrayInputStream(encode(noise(16, 8, 3), false)));
+        assertEquals(1, c.exifOrientation);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegCoefficientWriter.write(c, out, 6);
+        assertEquals(6, JpegCoefficientReader.read(new ByteArrayInputStream(out.toByteArray())).exifOrientation);
+    }
+
+    @Test(expected = UnsupportedJpegException.class)
+    public void progressiveJpegsAreRejected() throws IOException {
+        JpegCoefficientReader.read(new ByteArrayInputStream(encode(noise(32, 32, 1), true)));
+    }
+
+    @Test
+    public void blackOutFlattensTouchedBlocksOnly() throws IOException {
+        JpegCoefficients c = JpegCoefficientReader.read(new ByteArrayInputStream(encode(noise(64, 64, 5), false)));
+        JpegCoefficients before = c.copy();
+        DctCloakEngine.blackOut(c, 0, 0, 16, 16);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegCoefficientWriter.write(c, out, 1);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        // Chroma upsampling blends in the neighbouring blocks' colour along the box's edge.
+        for (int y = 0; y < 14; y++) {
+            for (int x = 0; x < 14; x++) {
+                int rgb = decoded.getRGB(x, y);
+                int max = Math.max((rgb >> 16) & 0xFF, Math.max((rgb >> 8) & 0xFF, rgb & 0xFF));
+                assertTrue("pixel " + x + "," + y + " is " + Integer.toHexString(rgb), max <= 8);
+            }
+        }
+        JpegCoefficients.Component luma = c.components[0];
+        int untouched = (luma.blocksH - 1) * luma.blocksW * 64 + (luma.blocksW - 1) * 64;
+        for (int k = 0; k < 64; k++) {
+            assertEquals(before.components[0].coef[untouched + k], luma.coef[untouched + k]);
+        }
+    }
+
+    static BufferedImage noise(int w, int h, long seed) {
+        Random r = new Random(seed);
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < h; y++) for (int x = 0; x < w; x++) img.setRGB(x, y, r.nextInt(0x1000000));
+        return img;
+    }
+
+    static byte[] encode(BufferedImage img, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (progressive) param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int[] pixels(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+}
@@ -21,4 +21,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "PixelCloak"
 include(":app")
+include(":engine")
+include(":cli")
  
\ No newline at end of file